@@ -0,0 +1,199 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.MediaMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Ordered list of videos from calling app, queued in one player so next item is buffered while current one plays
+class ApiPlaylist {
+
+    private final Uri[] uris;
+    private final String[] names;
+    private final Uri[] subtitles;
+    private final long[] positions;
+    private final String[] mimeTypes;
+    private final List<List<MediaItem.SubtitleConfiguration>> subtitleConfigurations = new ArrayList<>();
+    private final boolean[] resolved;
+    // Items which were played (from their position), next visits start from the beginning
+    private final boolean[] started;
+    private boolean resolving;
+
+    int index;
+
+    interface Listener {
+        void onResolved(int index, MediaItem mediaItem);
+    }
+
+    private ApiPlaylist(final Uri[] uris) {
+        this.uris = uris;
+        names = new String[uris.length];
+        subtitles = new Uri[uris.length];
+        positions = new long[uris.length];
+        mimeTypes = new String[uris.length];
+        resolved = new boolean[uris.length];
+        started = new boolean[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            subtitleConfigurations.add(null);
+        }
+    }
+
+    // Null if there's no list or it doesn't contain the launched uri
+    static ApiPlaylist fromBundle(final Bundle bundle, final Uri uri) {
+        final Parcelable[] list = bundle.getParcelableArray(PlayerActivity.API_VIDEO_LIST);
+        if (list == null || list.length < 2)
+            return null;
+        final Uri[] uris = new Uri[list.length];
+        int index = -1;
+        for (int i = 0; i < list.length; i++) {
+            if (!(list[i] instanceof Uri))
+                return null;
+            uris[i] = (Uri) list[i];
+            if (index < 0 && uris[i].equals(uri))
+                index = i;
+        }
+        if (index < 0)
+            return null;
+
+        final ApiPlaylist playlist = new ApiPlaylist(uris);
+        playlist.index = index;
+        playlist.started[index] = true;
+        final String[] names = bundle.getStringArray(PlayerActivity.API_VIDEO_LIST_NAME);
+        final Parcelable[] subtitles = bundle.getParcelableArray(PlayerActivity.API_VIDEO_LIST_SUBTITLES);
+        final int[] positions = bundle.getIntArray(PlayerActivity.API_VIDEO_LIST_POSITION);
+        for (int i = 0; i < uris.length; i++) {
+            if (names != null && names.length > i)
+                playlist.names[i] = names[i];
+            if (subtitles != null && subtitles.length > i && subtitles[i] instanceof Uri)
+                playlist.subtitles[i] = (Uri) subtitles[i];
+            if (positions != null && positions.length > i)
+                playlist.positions[i] = Math.max(0, positions[i]);
+        }
+        return playlist;
+    }
+
+    Uri getUri() {
+        return uris[index];
+    }
+
+    String getName() {
+        return names[index];
+    }
+
+    long getPosition() {
+        return positions[index];
+    }
+
+    void updatePosition(final int index, final long position) {
+        if (index >= 0 && index < positions.length && position != C.TIME_UNSET)
+            positions[index] = position;
+    }
+
+    // Position passed for the current item when it's reached for the first time, 0 otherwise
+    long start() {
+        if (started[index])
+            return 0;
+        started[index] = true;
+        return positions[index];
+    }
+
+    // Subtitles passed with the launched item (subs extras) instead of video_list.subtitles
+    void setSubtitles(final List<MediaItem.SubtitleConfiguration> subtitles) {
+        subtitleConfigurations.set(index, new ArrayList<>(subtitles));
+    }
+
+    // Only the current item is resolved here, others are replaced once resolve() looks them up
+    List<MediaItem> buildMediaItems(final Context context) {
+        if (!resolved[index]) {
+            mimeTypes[index] = getMimeType(context, uris[index]);
+            if (subtitleConfigurations.get(index) == null)
+                subtitleConfigurations.set(index, buildSubtitles(context, subtitles[index]));
+            resolved[index] = true;
+        }
+        final List<MediaItem> mediaItems = new ArrayList<>();
+        for (int i = 0; i < uris.length; i++) {
+            mediaItems.add(buildMediaItem(i));
+        }
+        return mediaItems;
+    }
+
+    // Container types and subtitles (provider queries) are looked up once for every item on background thread,
+    // listener is called on main thread for items which changed
+    void resolve(final Context context, final Listener listener) {
+        if (resolving)
+            return;
+        resolving = true;
+        final Context appContext = context.getApplicationContext();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final boolean[] done = resolved.clone();
+        new Thread(() -> {
+            for (int i = 0; i < uris.length; i++) {
+                if (done[i])
+                    continue;
+                final int item = i;
+                final String mimeType = getMimeType(appContext, uris[i]);
+                final List<MediaItem.SubtitleConfiguration> subtitleConfiguration = buildSubtitles(appContext, subtitles[i]);
+                handler.post(() -> {
+                    if (resolved[item])
+                        return;
+                    mimeTypes[item] = mimeType;
+                    if (subtitleConfigurations.get(item) == null)
+                        subtitleConfigurations.set(item, subtitleConfiguration);
+                    resolved[item] = true;
+                    if (mimeType != null || !subtitleConfigurations.get(item).isEmpty())
+                        listener.onResolved(item, buildMediaItem(item));
+                });
+            }
+        }).start();
+    }
+
+    private MediaItem buildMediaItem(final int i) {
+        final List<MediaItem.SubtitleConfiguration> subtitleConfiguration = subtitleConfigurations.get(i);
+        final MediaItem.Builder builder = new MediaItem.Builder()
+                .setUri(uris[i])
+                .setMimeType(mimeTypes[i])
+                .setSubtitleConfigurations(subtitleConfiguration != null ? subtitleConfiguration : Collections.emptyList());
+        if (names[i] != null)
+            builder.setMediaMetadata(new MediaMetadata.Builder().setTitle(names[i]).build());
+        return builder.build();
+    }
+
+    private static String getMimeType(final Context context, final Uri uri) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()))
+            return null;
+        String mimeType = null;
+        try {
+            mimeType = context.getContentResolver().getType(uri);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (mimeType != null && mimeType.endsWith("/*"))
+            return null;
+        return mimeType;
+    }
+
+    private static List<MediaItem.SubtitleConfiguration> buildSubtitles(final Context context, final Uri subtitle) {
+        return subtitle == null ? Collections.emptyList()
+                : Collections.singletonList(SubtitleUtils.buildSubtitle(context, subtitle, null, true));
+    }
+
+    void putResult(final Intent intent) {
+        final int[] positions = new int[this.positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = (int) this.positions[i];
+        }
+        intent.putExtra(PlayerActivity.API_VIDEO_LIST_POSITION, positions);
+    }
+}
@@ -0,0 +1,240 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.arthenica.ffmpegkit.FFmpegKit;
+import com.arthenica.ffmpegkit.FFmpegKitConfig;
+import com.arthenica.ffmpegkit.FFmpegSession;
+import com.arthenica.ffmpegkit.MediaInformation;
+import com.arthenica.ffmpegkit.ReturnCode;
+import com.arthenica.ffmpegkit.StreamInformation;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.audio.AudioCapabilities;
+import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Audio streams which can be neither passed through nor decoded by device (DTS-HD, TrueHD) are converted to E-AC3
+ * (or AAC) into cached Matroska file, video and other streams are copied. Player switches to the file when it's ready.
+ */
+class AudioTranscoder {
+
+    private static final String CACHE_DIR = "transcoded";
+    private static final String PART_SUFFIX = ".part";
+
+    interface Listener {
+        void onTranscoded(AudioTranscoder audioTranscoder, Uri uri);
+    }
+
+    private final Context context;
+    private final Uri uri;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private Thread thread;
+    private volatile FFmpegSession session;
+    private volatile Uri output;
+
+    AudioTranscoder(final Context context, final Uri uri, final Listener listener) {
+        this.context = context.getApplicationContext();
+        this.uri = uri;
+        this.listener = listener;
+    }
+
+    boolean isFor(final Uri uri) {
+        return this.uri.equals(uri);
+    }
+
+    // Cached file with converted audio, null until ready
+    Uri getOutput() {
+        return output;
+    }
+
+    void start() {
+        thread = new Thread(() -> {
+            final String fingerprint = MediaFingerprint.get(context, uri);
+            if (fingerprint == null)
+                return;
+            final File dir = getCacheDir(context);
+            final File file = new File(dir, fingerprint + ".mkv");
+            if (file.exists()) {
+                file.setLastModified(System.currentTimeMillis());
+                onReady(file);
+                return;
+            }
+
+            final MediaInformation mediaInformation = Utils.getMediaInformation(context, uri);
+            if (mediaInformation == null || Thread.currentThread().isInterrupted())
+                return;
+            final String[] arguments = buildArguments(mediaInformation);
+            if (arguments == null)
+                return;
+
+            long size = 0;
+            try {
+                size = Long.parseLong(mediaInformation.getSize());
+            } catch (Exception ignored) {}
+            if (!trimCache(dir, size))
+                return;
+
+            // SAF parameter can be used only once
+            final String path = Utils.getFfmpegPath(context, uri);
+            if (path == null || Thread.currentThread().isInterrupted())
+                return;
+            final File partFile = new File(dir, file.getName() + PART_SUFFIX);
+            final ArrayList<String> command = new ArrayList<>(Arrays.asList("-y", "-v", "error", "-i", path));
+            command.addAll(Arrays.asList(arguments));
+            command.addAll(Arrays.asList("-f", "matroska", partFile.getAbsolutePath()));
+
+            Utils.log("Transcoding audio: " + command);
+            session = new FFmpegSession(command.toArray(new String[0]));
+            FFmpegKitConfig.ffmpegExecute(session);
+            if (ReturnCode.isSuccess(session.getReturnCode()) && partFile.renameTo(file)) {
+                onReady(file);
+            } else {
+                Utils.log("Transcoding failed: " + session.getOutput());
+                partFile.delete();
+            }
+            session = null;
+        });
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+        final FFmpegSession session = this.session;
+        if (session != null) {
+            FFmpegKit.cancel(session.getSessionId());
+        }
+    }
+
+    private void onReady(final File file) {
+        output = Uri.fromFile(file);
+        handler.post(() -> listener.onTranscoded(this, output));
+    }
+
+    // Codec arguments for ffmpeg, null if all audio streams are fine as they are
+    private String[] buildArguments(final MediaInformation mediaInformation) {
+        final AudioCapabilities audioCapabilities = AudioCapabilities.getCapabilities(context);
+        final ArrayList<String> arguments = new ArrayList<>(Arrays.asList(
+                "-map", "0:v?", "-map", "0:a", "-map", "0:t?", "-c", "copy"));
+        boolean needed = false;
+        int audioIndex = 0;
+        int subtitleIndex = 0;
+        int subtitleOutputIndex = 0;
+        for (StreamInformation stream : mediaInformation.getStreams()) {
+            if ("subtitle".equals(stream.getType())) {
+                final String codec = stream.getCodec();
+                // Unknown codec can't be muxed
+                if (codec != null) {
+                    arguments.addAll(Arrays.asList("-map", "0:s:" + subtitleIndex));
+                    // MP4 text can't be copied into Matroska
+                    if ("mov_text".equals(codec)) {
+                        arguments.addAll(Arrays.asList("-c:s:" + subtitleOutputIndex, "srt"));
+                    }
+                    subtitleOutputIndex++;
+                }
+                subtitleIndex++;
+                continue;
+            }
+            if (!"audio".equals(stream.getType()))
+                continue;
+            if (!isPlayable(audioCapabilities, stream)) {
+                final String index = ":a:" + audioIndex;
+                // Device without E-AC3 passthrough decodes AAC cheaply (usually in hardware)
+                if (audioCapabilities.supportsEncoding(C.ENCODING_E_AC3)) {
+                    arguments.addAll(Arrays.asList("-c" + index, "eac3", "-b" + index, "640k"));
+                    final Long channels = stream.getNumberProperty("channels");
+                    if (channels != null && channels > 6) {
+                        arguments.addAll(Arrays.asList("-ac" + index, "6"));
+                    }
+                } else {
+                    arguments.addAll(Arrays.asList("-c" + index, "aac", "-b" + index, "384k"));
+                }
+                needed = true;
+            }
+            audioIndex++;
+        }
+        return needed ? arguments.toArray(new String[0]) : null;
+    }
+
+    private static boolean isPlayable(final AudioCapabilities audioCapabilities, final StreamInformation stream) {
+        final String codec = stream.getCodec();
+        final String mimeType;
+        final int encoding;
+        if ("truehd".equals(codec) || "mlp".equals(codec)) {
+            mimeType = MimeTypes.AUDIO_TRUEHD;
+            encoding = C.ENCODING_DOLBY_TRUEHD;
+        } else if ("dts".equals(codec)) {
+            final String profile = stream.getStringProperty("profile");
+            if (profile != null && profile.startsWith("DTS-HD")) {
+                mimeType = MimeTypes.AUDIO_DTS_HD;
+                encoding = C.ENCODING_DTS_HD;
+            } else {
+                mimeType = MimeTypes.AUDIO_DTS;
+                encoding = C.ENCODING_DTS;
+            }
+        } else {
+            return true;
+        }
+        if (audioCapabilities.supportsEncoding(encoding))
+            return true;
+        try {
+            return MediaCodecUtil.getDecoderInfo(mimeType, false, false) != null;
+        } catch (MediaCodecUtil.DecoderQueryException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static File getCacheDir(final Context context) {
+        // Converted files are about as big as the source, external cache is usually larger
+        File cacheDir = context.getExternalCacheDir();
+        if (cacheDir == null)
+            cacheDir = context.getCacheDir();
+        final File dir = new File(cacheDir, CACHE_DIR);
+        if (!dir.exists())
+            dir.mkdirs();
+        return dir;
+    }
+
+    // Removes least recently used files to make room, false if there's not enough space anyway.
+    // Cache may take half of the space available to it (its files and free space).
+    private static boolean trimCache(final File dir, final long size) {
+        final File[] files = dir.listFiles();
+        if (files == null)
+            return false;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        long total = 0;
+        for (File file : files) {
+            // Leftover of interrupted conversion
+            if (file.getName().endsWith(PART_SUFFIX)) {
+                file.delete();
+            } else {
+                total += file.length();
+            }
+        }
+        final long maxSize = (total + dir.getUsableSpace()) / 2;
+        if (size > maxSize)
+            return false;
+        for (File file : files) {
+            if (total + size <= maxSize)
+                break;
+            if (file.exists()) {
+                total -= file.length();
+                file.delete();
+            }
+        }
+        return total + size <= maxSize;
+    }
+}
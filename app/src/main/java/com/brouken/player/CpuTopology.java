@@ -0,0 +1,59 @@
+package com.brouken.player;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+// Core count and big.LITTLE split from cpufreq (cores faster than the slowest cluster are "big")
+class CpuTopology {
+
+    private static final String CPU_DIR = "/sys/devices/system/cpu";
+
+    private static int coreCount;
+    private static int bigCoreCount;
+
+    static synchronized int getCoreCount() {
+        if (coreCount == 0) {
+            detect();
+        }
+        return coreCount;
+    }
+
+    static synchronized int getBigCoreCount() {
+        if (coreCount == 0) {
+            detect();
+        }
+        return bigCoreCount;
+    }
+
+    private static void detect() {
+        final File[] cpus = new File(CPU_DIR).listFiles((dir, name) -> name.matches("cpu[0-9]+"));
+        coreCount = cpus != null && cpus.length > 0 ? cpus.length : Runtime.getRuntime().availableProcessors();
+
+        final long[] frequencies = new long[cpus != null ? cpus.length : 0];
+        long minFrequency = Long.MAX_VALUE;
+        for (int i = 0; i < frequencies.length; i++) {
+            frequencies[i] = readLong(new File(cpus[i], "cpufreq/cpuinfo_max_freq"));
+            if (frequencies[i] > 0) {
+                minFrequency = Math.min(minFrequency, frequencies[i]);
+            }
+        }
+        int count = 0;
+        for (long frequency : frequencies) {
+            if (frequency > minFrequency) {
+                count++;
+            }
+        }
+        // Same frequency everywhere (or not readable): no LITTLE cores
+        bigCoreCount = count > 0 ? count : coreCount;
+        Utils.log("CPU cores: " + coreCount + ", big: " + bigCoreCount);
+    }
+
+    private static long readLong(final File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return Long.parseLong(reader.readLine().trim());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.audio.AudioCapabilities;
+import com.google.android.exoplayer2.audio.AudioRendererEventListener;
+import com.google.android.exoplayer2.audio.AudioSink;
+import com.google.android.exoplayer2.audio.DefaultAudioSink;
+import com.google.android.exoplayer2.audio.MediaCodecAudioRenderer;
+import com.google.android.exoplayer2.ext.av1.Libgav1VideoRenderer;
+import com.google.android.exoplayer2.mediacodec.MediaCodecAdapter;
+import com.google.android.exoplayer2.mediacodec.MediaCodecInfo;
+import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
+import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+import com.google.android.exoplayer2.video.MediaCodecVideoRenderer;
+import com.google.android.exoplayer2.video.VideoRendererEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Video and audio renderers skip decoders known to fail for a format, AV1 software decoder is sized for the CPU,
+// audio optionally goes through dynamic range compression
+class CustomDefaultRenderersFactory extends DefaultRenderersFactory {
+
+    private static final int AV1_MAX_INPUT_BUFFERS = 8;
+    private static final int AV1_MAX_OUTPUT_BUFFERS = 12;
+
+    private final DecoderFallback decoderFallback;
+    private final int av1Threads;
+    private final boolean dynamicRangeCompression;
+
+    // av1Threads: 0 for automatic
+    CustomDefaultRenderersFactory(final Context context, final DecoderFallback decoderFallback, final int av1Threads,
+                                  final boolean dynamicRangeCompression) {
+        super(context);
+        this.decoderFallback = decoderFallback;
+        this.av1Threads = av1Threads;
+        this.dynamicRangeCompression = dynamicRangeCompression;
+    }
+
+    // LITTLE cores count half as frame threads waiting on them stall the big ones
+    static int getAv1Threads(final int pinnedThreads) {
+        if (pinnedThreads > 0) {
+            return pinnedThreads;
+        }
+        final int bigCores = CpuTopology.getBigCoreCount();
+        return Math.max(1, bigCores + (CpuTopology.getCoreCount() - bigCores) / 2);
+    }
+
+    // Every thread has a frame in flight, plus buffers for queueing and rendering
+    static int getAv1InputBuffers(final int threads) {
+        return Math.min(threads + 2, AV1_MAX_INPUT_BUFFERS);
+    }
+
+    static int getAv1OutputBuffers(final int threads) {
+        return Math.min(threads + 4, AV1_MAX_OUTPUT_BUFFERS);
+    }
+
+    @Override
+    protected void buildVideoRenderers(@NonNull Context context, int extensionRendererMode, @NonNull MediaCodecSelector mediaCodecSelector,
+                                       boolean enableDecoderFallback, @NonNull Handler eventHandler, @NonNull VideoRendererEventListener eventListener,
+                                       long allowedVideoJoiningTimeMs, @NonNull ArrayList<Renderer> out) {
+        final ArrayList<Renderer> renderers = new ArrayList<>();
+        super.buildVideoRenderers(context, extensionRendererMode, mediaCodecSelector, enableDecoderFallback, eventHandler, eventListener,
+                allowedVideoJoiningTimeMs, renderers);
+        for (Renderer renderer : renderers) {
+            if (renderer instanceof MediaCodecVideoRenderer) {
+                renderer = new VideoRenderer(context, getCodecAdapterFactory(), mediaCodecSelector, allowedVideoJoiningTimeMs,
+                        enableDecoderFallback, eventHandler, eventListener, MAX_DROPPED_VIDEO_FRAME_COUNT_TO_NOTIFY);
+            } else if (renderer instanceof Libgav1VideoRenderer) {
+                final int threads = getAv1Threads(av1Threads);
+                renderer = new Libgav1VideoRenderer(allowedVideoJoiningTimeMs, eventHandler, eventListener, MAX_DROPPED_VIDEO_FRAME_COUNT_TO_NOTIFY,
+                        threads, getAv1InputBuffers(threads), getAv1OutputBuffers(threads));
+            }
+            out.add(decoderFallback.wrap(renderer));
+        }
+    }
+
+    @Override
+    protected void buildAudioRenderers(@NonNull Context context, int extensionRendererMode, @NonNull MediaCodecSelector mediaCodecSelector,
+                                       boolean enableDecoderFallback, @NonNull AudioSink audioSink, @NonNull Handler eventHandler,
+                                       @NonNull AudioRendererEventListener eventListener, @NonNull ArrayList<Renderer> out) {
+        final ArrayList<Renderer> renderers = new ArrayList<>();
+        super.buildAudioRenderers(context, extensionRendererMode, mediaCodecSelector, enableDecoderFallback, audioSink, eventHandler,
+                eventListener, renderers);
+        for (Renderer renderer : renderers) {
+            if (renderer instanceof MediaCodecAudioRenderer) {
+                renderer = new AudioRenderer(context, getCodecAdapterFactory(), mediaCodecSelector, enableDecoderFallback,
+                        eventHandler, eventListener, audioSink);
+            }
+            out.add(decoderFallback.wrap(renderer));
+        }
+    }
+
+    @Nullable
+    @Override
+    protected AudioSink buildAudioSink(@NonNull Context context, boolean enableFloatOutput, boolean enableAudioTrackPlaybackParams,
+                                       boolean enableOffload) {
+        if (!dynamicRangeCompression) {
+            return super.buildAudioSink(context, enableFloatOutput, enableAudioTrackPlaybackParams, enableOffload);
+        }
+        // Runs before speed adjustment and silence skipping
+        return new DefaultAudioSink(AudioCapabilities.getCapabilities(context),
+                new DefaultAudioSink.DefaultAudioProcessorChain(new DynamicRangeProcessor()),
+                enableFloatOutput, enableAudioTrackPlaybackParams,
+                enableOffload ? DefaultAudioSink.OFFLOAD_MODE_ENABLED_GAPLESS_REQUIRED : DefaultAudioSink.OFFLOAD_MODE_DISABLED);
+    }
+
+    private class VideoRenderer extends MediaCodecVideoRenderer implements DecoderFallback.MediaCodecDecoder {
+
+        VideoRenderer(Context context, MediaCodecAdapter.Factory codecAdapterFactory, MediaCodecSelector mediaCodecSelector,
+                      long allowedJoiningTimeMs, boolean enableDecoderFallback, @Nullable Handler eventHandler,
+                      @Nullable VideoRendererEventListener eventListener, int maxDroppedFramesToNotify) {
+            super(context, codecAdapterFactory, mediaCodecSelector, allowedJoiningTimeMs, enableDecoderFallback, eventHandler,
+                    eventListener, maxDroppedFramesToNotify);
+        }
+
+        @NonNull
+        @Override
+        protected List<MediaCodecInfo> getDecoderInfos(@NonNull MediaCodecSelector mediaCodecSelector, @NonNull Format format,
+                                                       boolean requiresSecureDecoder) throws MediaCodecUtil.DecoderQueryException {
+            return decoderFallback.filter(super.getDecoderInfos(mediaCodecSelector, format, requiresSecureDecoder), format);
+        }
+
+        @Nullable
+        @Override
+        public String getCodecName() {
+            final MediaCodecInfo codecInfo = getCodecInfo();
+            return codecInfo == null ? null : codecInfo.name;
+        }
+    }
+
+    private class AudioRenderer extends MediaCodecAudioRenderer implements DecoderFallback.MediaCodecDecoder {
+
+        AudioRenderer(Context context, MediaCodecAdapter.Factory codecAdapterFactory, MediaCodecSelector mediaCodecSelector,
+                      boolean enableDecoderFallback, @Nullable Handler eventHandler, @Nullable AudioRendererEventListener eventListener,
+                      AudioSink audioSink) {
+            super(context, codecAdapterFactory, mediaCodecSelector, enableDecoderFallback, eventHandler, eventListener, audioSink);
+        }
+
+        @NonNull
+        @Override
+        protected List<MediaCodecInfo> getDecoderInfos(@NonNull MediaCodecSelector mediaCodecSelector, @NonNull Format format,
+                                                       boolean requiresSecureDecoder) throws MediaCodecUtil.DecoderQueryException {
+            return decoderFallback.filter(super.getDecoderInfos(mediaCodecSelector, format, requiresSecureDecoder), format);
+        }
+
+        @Nullable
+        @Override
+        public String getCodecName() {
+            final MediaCodecInfo codecInfo = getCodecInfo();
+            return codecInfo == null ? null : codecInfo.name;
+        }
+    }
+}
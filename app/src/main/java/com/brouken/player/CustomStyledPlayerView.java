@@ -3,14 +3,18 @@ package com.brouken.player;
 import android.content.Context;
 import android.graphics.Color;
 import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.media.AudioManager;
 import android.os.Build;
 import android.util.AttributeSet;
+import android.util.TypedValue;
 import android.view.GestureDetector;
 import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
 import android.widget.TextView;
 
 import androidx.core.view.GestureDetectorCompat;
@@ -68,6 +72,7 @@ public class CustomStyledPlayerView extends StyledPlayerView implements GestureD
     private BrightnessControl brightnessControl;
 
     private final TextView exoErrorMessage;
+    private TextView statsView;
     private final View exoProgress;
 
     public CustomStyledPlayerView(Context context) {
@@ -239,21 +244,19 @@ public class CustomStyledPlayerView extends StyledPlayerView implements GestureD
                 if (PlayerActivity.haveMedia) {
                     if (gestureScrollX > 0) {
                         if (seekStart + seekChange - SEEK_STEP  * distanceDiff >= 0) {
-                            PlayerActivity.player.setSeekParameters(SeekParameters.PREVIOUS_SYNC);
                             seekChange -= SEEK_STEP * distanceDiff;
                             position = seekStart + seekChange;
-                            PlayerActivity.player.seekTo(position);
+                            PlayerActivity.seekScheduler.seekTo(position, SeekParameters.PREVIOUS_SYNC);
                         }
                     } else {
-                        PlayerActivity.player.setSeekParameters(SeekParameters.NEXT_SYNC);
                         if (seekMax == C.TIME_UNSET) {
                             seekChange += SEEK_STEP * distanceDiff;
                             position = seekStart + seekChange;
-                            PlayerActivity.player.seekTo(position);
+                            PlayerActivity.seekScheduler.seekTo(position, SeekParameters.NEXT_SYNC);
                         } else if (seekStart + seekChange + SEEK_STEP < seekMax) {
                             seekChange += SEEK_STEP  * distanceDiff;
                             position = seekStart + seekChange;
-                            PlayerActivity.player.seekTo(position);
+                            PlayerActivity.seekScheduler.seekTo(position, SeekParameters.NEXT_SYNC);
                         }
                     }
                     for (long start : PlayerActivity.chapterStarts) {
@@ -430,4 +433,29 @@ public class CustomStyledPlayerView extends StyledPlayerView implements GestureD
     public void setBrightnessControl(BrightnessControl brightnessControl) {
         this.brightnessControl = brightnessControl;
     }
+
+    public void setStatsText(final String text) {
+        if (text == null) {
+            if (statsView != null)
+                statsView.setVisibility(View.GONE);
+            return;
+        }
+        if (statsView == null) {
+            final FrameLayout overlayFrameLayout = getOverlayFrameLayout();
+            if (overlayFrameLayout == null)
+                return;
+            final int padding = Utils.dpToPx(8);
+            statsView = new TextView(getContext());
+            statsView.setTextColor(Color.WHITE);
+            statsView.setBackgroundColor(0x99000000);
+            statsView.setTypeface(Typeface.MONOSPACE);
+            statsView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
+            statsView.setPadding(padding, padding, padding, padding);
+            final FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+            layoutParams.setMargins(padding * 2, padding * 2, padding * 2, padding * 2);
+            overlayFrameLayout.addView(statsView, layoutParams);
+        }
+        statsView.setText(text);
+        statsView.setVisibility(View.VISIBLE);
+    }
 }
\ No newline at end of file
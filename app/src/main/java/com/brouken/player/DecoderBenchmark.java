@@ -0,0 +1,450 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.decoder.Decoder;
+import com.google.android.exoplayer2.decoder.DecoderException;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.decoder.DecoderOutputBuffer;
+import com.google.android.exoplayer2.ext.av1.Gav1Decoder;
+import com.google.android.exoplayer2.ext.av1.Gav1Library;
+import com.google.android.exoplayer2.ext.ffmpeg.FfmpegLibrary;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Decodes a clip through every available decoder (device, ffmpeg and av1 extension) as fast as possible.
+ * Decoders are ranked by speed per codec, profile and resolution class (same key as in DecoderFallback)
+ * and the ranking is used by renderers for matching formats instead of global decoder priority.
+ */
+class DecoderBenchmark {
+
+    private static final String FILE = "benchmark";
+    // Beginning of clip only, long clips would take minutes with slow decoders
+    private static final long MAX_DURATION_US = 10_000_000;
+    private static final long TIMEOUT_US = 10_000;
+    // Decoder which doesn't finish (no end of stream) in time fails
+    private static final long DEADLINE_MS = 60_000;
+    private static final int BUFFER_COUNT = 4;
+
+    private static HashMap<String, ArrayList<String>> rankings;
+
+    static class Result {
+        final String key;
+        final String mimeType;
+        final String decoder;
+        // Decoded media duration per wall time
+        float speed;
+        float fps;
+        int frames;
+        // Frames decoded later than needed for playback started with the first frame
+        int lateFrames;
+        // Software decoder threads, 0 if not configurable
+        int threads;
+        boolean failed;
+
+        Result(final String key, final String mimeType, final String decoder) {
+            this.key = key;
+            this.mimeType = mimeType;
+            this.decoder = decoder;
+        }
+    }
+
+    // Blocking, decodes each video and audio track of the clip with each decoder
+    static List<Result> run(final Context context, final Uri uri, final int av1Threads) {
+        final ArrayList<Result> results = new ArrayList<>();
+        final MediaExtractor probe = new MediaExtractor();
+        try {
+            probe.setDataSource(context, uri, null);
+            final ArrayList<String> benchmarked = new ArrayList<>();
+            for (int track = 0; track < probe.getTrackCount(); track++) {
+                final MediaFormat mediaFormat = probe.getTrackFormat(track);
+                final String mimeType = mediaFormat.getString(MediaFormat.KEY_MIME);
+                if (mimeType == null || !(MimeTypes.isVideo(mimeType) || MimeTypes.isAudio(mimeType))) {
+                    continue;
+                }
+                final String key = getKey(mediaFormat);
+                if (benchmarked.contains(key)) {
+                    continue;
+                }
+                benchmarked.add(key);
+
+                final ArrayList<Result> trackResults = new ArrayList<>();
+                for (String decoder : getDecoders(mimeType)) {
+                    final Result result = new Result(key, mimeType, decoder);
+                    Utils.log("Benchmark " + decoder + " (" + mimeType + ")");
+                    try {
+                        benchmark(context, uri, track, mediaFormat, av1Threads, result);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        result.failed = true;
+                    }
+                    trackResults.add(result);
+                }
+                Collections.sort(trackResults, (a, b) -> Float.compare(getScore(b), getScore(a)));
+                results.addAll(trackResults);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            probe.release();
+        }
+        saveRankings(context, results);
+        return results;
+    }
+
+    // Realtime capable decoders first, then by speed
+    private static float getScore(final Result result) {
+        if (result.failed || result.frames == 0) {
+            return -1;
+        }
+        return result.lateFrames == 0 ? result.speed + 1000 : result.speed;
+    }
+
+    // Codecs string is known from Android 11 only
+    private static String getKey(final MediaFormat mediaFormat) {
+        final String codecs = Build.VERSION.SDK_INT >= 30 && mediaFormat.containsKey(MediaFormat.KEY_CODECS_STRING) ?
+                mediaFormat.getString(MediaFormat.KEY_CODECS_STRING) : null;
+        return DecoderFallback.getKey(mediaFormat.getString(MediaFormat.KEY_MIME), codecs, getInteger(mediaFormat, MediaFormat.KEY_WIDTH),
+                getInteger(mediaFormat, MediaFormat.KEY_HEIGHT), getInteger(mediaFormat, MediaFormat.KEY_CHANNEL_COUNT));
+    }
+
+    private static int getInteger(final MediaFormat mediaFormat, final String name) {
+        return mediaFormat.containsKey(name) ? mediaFormat.getInteger(name) : Format.NO_VALUE;
+    }
+
+    private static List<String> getDecoders(final String mimeType) {
+        final ArrayList<String> decoders = new ArrayList<>();
+        for (MediaCodecInfo codecInfo : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (codecInfo.isEncoder() || (Build.VERSION.SDK_INT >= 29 && codecInfo.isAlias())) {
+                continue;
+            }
+            for (String type : codecInfo.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(mimeType)) {
+                    decoders.add(codecInfo.getName());
+                    break;
+                }
+            }
+        }
+        try {
+            if (MimeTypes.VIDEO_AV1.equals(mimeType) && Gav1Library.isAvailable()) {
+                decoders.add(DecoderFallback.RENDERER_AV1);
+            }
+            if (MimeTypes.isAudio(mimeType) && FfmpegLibrary.isAvailable() && FfmpegLibrary.supportsFormat(mimeType)) {
+                decoders.add(DecoderFallback.RENDERER_FFMPEG);
+            }
+        } catch (Throwable e) {
+            // Extension not bundled in this build
+            e.printStackTrace();
+        }
+        return decoders;
+    }
+
+    private static void benchmark(final Context context, final Uri uri, final int track, final MediaFormat mediaFormat, final int av1Threads,
+                                  final Result result) throws Exception {
+        final MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(context, uri, null);
+            extractor.selectTrack(track);
+            if (DecoderFallback.RENDERER_AV1.equals(result.decoder)) {
+                // Same configuration as in playback, to verify it keeps up
+                result.threads = CustomDefaultRenderersFactory.getAv1Threads(av1Threads);
+                final Gav1Decoder decoder = new Gav1Decoder(CustomDefaultRenderersFactory.getAv1InputBuffers(result.threads),
+                        CustomDefaultRenderersFactory.getAv1OutputBuffers(result.threads), getInputSize(mediaFormat), result.threads);
+                decoder.setOutputMode(C.VIDEO_OUTPUT_MODE_YUV);
+                benchmarkDecoder(decoder, extractor, getInputSize(mediaFormat), result);
+            } else if (DecoderFallback.RENDERER_FFMPEG.equals(result.decoder)) {
+                benchmarkDecoder(createFfmpegDecoder(mediaFormat), extractor, getInputSize(mediaFormat), result);
+            } else {
+                benchmarkMediaCodec(extractor, mediaFormat, result);
+            }
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private static int getInputSize(final MediaFormat mediaFormat) {
+        int size = 1024 * 1024;
+        if (mediaFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+            size = Math.max(size, mediaFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+        }
+        if (mediaFormat.containsKey(MediaFormat.KEY_WIDTH) && mediaFormat.containsKey(MediaFormat.KEY_HEIGHT)) {
+            size = Math.max(size, mediaFormat.getInteger(MediaFormat.KEY_WIDTH) * mediaFormat.getInteger(MediaFormat.KEY_HEIGHT) * 3 / 2);
+        }
+        return size;
+    }
+
+    // Audio decoder of the extension is package private, same as in DefaultRenderersFactory it's created using reflection
+    @SuppressWarnings("unchecked")
+    private static Decoder<DecoderInputBuffer, ? extends DecoderOutputBuffer, ? extends DecoderException> createFfmpegDecoder(final MediaFormat mediaFormat) throws Exception {
+        final Format.Builder formatBuilder = new Format.Builder()
+                .setSampleMimeType(mediaFormat.getString(MediaFormat.KEY_MIME))
+                .setChannelCount(mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT))
+                .setSampleRate(mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE));
+        final ArrayList<byte[]> initializationData = new ArrayList<>();
+        for (int i = 0; mediaFormat.containsKey("csd-" + i); i++) {
+            final ByteBuffer csd = mediaFormat.getByteBuffer("csd-" + i);
+            final byte[] data = new byte[csd.remaining()];
+            csd.duplicate().get(data);
+            initializationData.add(data);
+        }
+        formatBuilder.setInitializationData(initializationData);
+
+        final Class<?> decoderClass = Class.forName("com.google.android.exoplayer2.ext.ffmpeg.FfmpegAudioDecoder");
+        final Constructor<?> constructor = decoderClass.getConstructor(Format.class, int.class, int.class, int.class, boolean.class);
+        constructor.setAccessible(true);
+        return (Decoder<DecoderInputBuffer, ? extends DecoderOutputBuffer, ? extends DecoderException>)
+                constructor.newInstance(formatBuilder.build(), BUFFER_COUNT, BUFFER_COUNT, getInputSize(mediaFormat), false);
+    }
+
+    private static <O extends DecoderOutputBuffer> void benchmarkDecoder(final Decoder<DecoderInputBuffer, O, ? extends DecoderException> decoder,
+                                                                          final MediaExtractor extractor, final int inputSize, final Result result) throws Exception {
+        final Timing timing = new Timing();
+        final long deadline = SystemClock.elapsedRealtime() + DEADLINE_MS;
+        boolean inputDone = false;
+        try {
+            while (true) {
+                checkDeadline(deadline);
+                if (!inputDone) {
+                    final DecoderInputBuffer inputBuffer = decoder.dequeueInputBuffer();
+                    if (inputBuffer != null) {
+                        final long sampleTime = extractor.getSampleTime();
+                        if (sampleTime < 0 || sampleTime > MAX_DURATION_US) {
+                            inputBuffer.setFlags(C.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            inputBuffer.ensureSpaceForWrite(inputSize);
+                            final int size = extractor.readSampleData(inputBuffer.data, 0);
+                            inputBuffer.data.position(size);
+                            inputBuffer.timeUs = sampleTime;
+                            inputBuffer.flip();
+                            extractor.advance();
+                            timing.start();
+                        }
+                        decoder.queueInputBuffer(inputBuffer);
+                    }
+                }
+
+                final O outputBuffer = decoder.dequeueOutputBuffer();
+                if (outputBuffer == null) {
+                    // Decoding on its own thread
+                    Thread.sleep(1);
+                    continue;
+                }
+                final boolean end = outputBuffer.isEndOfStream();
+                if (!end) {
+                    timing.onOutput(outputBuffer.timeUs);
+                }
+                outputBuffer.release();
+                if (end) {
+                    break;
+                }
+            }
+        } finally {
+            decoder.release();
+        }
+        timing.finish(result);
+    }
+
+    private static void benchmarkMediaCodec(final MediaExtractor extractor, final MediaFormat mediaFormat, final Result result) throws Exception {
+        final boolean video = MimeTypes.isVideo(mediaFormat.getString(MediaFormat.KEY_MIME));
+        SurfaceTexture surfaceTexture = null;
+        Surface surface = null;
+        // Device decoders are fastest with surface output (frames are not rendered)
+        if (video) {
+            surfaceTexture = new SurfaceTexture(0);
+            surface = new Surface(surfaceTexture);
+        }
+        final MediaCodec codec = MediaCodec.createByCodecName(result.decoder);
+        final Timing timing = new Timing();
+        final long deadline = SystemClock.elapsedRealtime() + DEADLINE_MS;
+        try {
+            codec.configure(mediaFormat, surface, null, 0);
+            codec.start();
+            final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            while (true) {
+                checkDeadline(deadline);
+                if (!inputDone) {
+                    final int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        final long sampleTime = extractor.getSampleTime();
+                        if (sampleTime < 0 || sampleTime > MAX_DURATION_US) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            final int size = extractor.readSampleData(codec.getInputBuffer(inputIndex), 0);
+                            codec.queueInputBuffer(inputIndex, 0, size, sampleTime, 0);
+                            extractor.advance();
+                            timing.start();
+                        }
+                    }
+                }
+
+                final int outputIndex = codec.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+                if (outputIndex >= 0) {
+                    final boolean end = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                    if (bufferInfo.size > 0 || (video && !end)) {
+                        timing.onOutput(bufferInfo.presentationTimeUs);
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    if (end) {
+                        break;
+                    }
+                }
+            }
+            codec.stop();
+        } finally {
+            codec.release();
+            if (surface != null) {
+                surface.release();
+                surfaceTexture.release();
+            }
+        }
+        timing.finish(result);
+    }
+
+    private static void checkDeadline(final long deadline) throws TimeoutException {
+        if (SystemClock.elapsedRealtime() > deadline) {
+            throw new TimeoutException("Decoder didn't finish in " + DEADLINE_MS + " ms");
+        }
+    }
+
+    private static class Timing {
+        private long startTime = C.TIME_UNSET;
+        private long firstOutputTime = C.TIME_UNSET;
+        private long firstTimeUs;
+        private long lastTimeUs;
+        private int frames;
+        private int lateFrames;
+
+        void start() {
+            if (startTime == C.TIME_UNSET) {
+                startTime = SystemClock.elapsedRealtimeNanos();
+            }
+        }
+
+        void onOutput(final long timeUs) {
+            final long now = SystemClock.elapsedRealtimeNanos();
+            if (firstOutputTime == C.TIME_UNSET) {
+                firstOutputTime = now;
+                firstTimeUs = timeUs;
+            } else if ((now - firstOutputTime) / 1000 > timeUs - firstTimeUs) {
+                lateFrames++;
+            }
+            lastTimeUs = Math.max(lastTimeUs, timeUs);
+            frames++;
+        }
+
+        void finish(final Result result) {
+            final long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+            result.frames = frames;
+            result.lateFrames = lateFrames;
+            if (frames > 0 && elapsed > 0) {
+                result.fps = frames * 1_000_000_000f / elapsed;
+                result.speed = (lastTimeUs - firstTimeUs) * 1000f / elapsed;
+            }
+        }
+    }
+
+    static String format(final List<Result> results) {
+        final StringBuilder text = new StringBuilder();
+        String key = null;
+        for (Result result : results) {
+            if (!result.key.equals(key)) {
+                key = result.key;
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(key).append('\n');
+            }
+            text.append(result.decoder).append(": ");
+            if (result.failed) {
+                text.append("failed");
+            } else {
+                text.append(String.format(Locale.US, "%.1f fps, %.1fx, %d late", result.fps, result.speed, result.lateFrames));
+                if (result.threads > 0) {
+                    text.append(", ").append(result.threads).append(" threads");
+                }
+            }
+            text.append('\n');
+        }
+        return text.toString().trim();
+    }
+
+    // Decoders for codec, profile and resolution class of the format, fastest first
+    static synchronized List<String> getRanking(final Context context, final Format format) {
+        if (rankings == null) {
+            loadRankings(context);
+        }
+        ArrayList<String> ranking = rankings.get(DecoderFallback.getKey(format));
+        if (ranking == null) {
+            // Clip benchmarked without codecs string (before Android 11) covers all profiles of its resolution class
+            ranking = rankings.get(DecoderFallback.getKey(format.sampleMimeType, null, format.width, format.height, format.channelCount));
+        }
+        return ranking == null ? Collections.emptyList() : ranking;
+    }
+
+    private static synchronized void saveRankings(final Context context, final List<Result> results) {
+        if (rankings == null) {
+            loadRankings(context);
+        }
+        final HashMap<String, ArrayList<String>> updated = new HashMap<>();
+        for (Result result : results) {
+            if (getScore(result) < 0) {
+                continue;
+            }
+            ArrayList<String> ranking = updated.get(result.key);
+            if (ranking == null) {
+                ranking = new ArrayList<>();
+                updated.put(result.key, ranking);
+            }
+            ranking.add(result.decoder);
+        }
+        rankings.putAll(updated);
+
+        try (ObjectOutputStream os = new ObjectOutputStream(context.openFileOutput(FILE, Context.MODE_PRIVATE))) {
+            os.writeUTF(Build.FINGERPRINT);
+            os.writeObject(rankings);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void loadRankings(final Context context) {
+        try (ObjectInputStream is = new ObjectInputStream(context.openFileInput(FILE))) {
+            // Decoders may change with system update
+            if (Build.FINGERPRINT.equals(is.readUTF())) {
+                rankings = (HashMap<String, ArrayList<String>>) is.readObject();
+            }
+        } catch (Exception e) {
+            // Not benchmarked yet
+        }
+        if (rankings == null) {
+            rankings = new HashMap<>();
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.RendererCapabilities;
+import com.google.android.exoplayer2.RendererConfiguration;
+import com.google.android.exoplayer2.analytics.PlayerId;
+import com.google.android.exoplayer2.mediacodec.MediaCodecDecoderException;
+import com.google.android.exoplayer2.mediacodec.MediaCodecInfo;
+import com.google.android.exoplayer2.mediacodec.MediaCodecRenderer;
+import com.google.android.exoplayer2.source.SampleStream;
+import com.google.android.exoplayer2.util.MediaClock;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers decoders which failed per codec, profile and resolution (and the one which worked after that).
+ * Device decoders are identified by codec name, extension decoders (and device decoders as a whole) by renderer name.
+ * Init and decoding errors are often temporary (codec held by other app, broken file), so such decoder is only avoided
+ * for current player until it fails for another file too. Entries expire and a decoder which works again is cleared.
+ * Store is shared by all players (warm held one included), so it's guarded by class lock.
+ */
+class DecoderFallback {
+
+    static final String RENDERER_AV1 = "Libgav1VideoRenderer";
+    static final String RENDERER_FFMPEG = "FfmpegAudioRenderer";
+
+    private static final String FILE = "decoders";
+    private static final int[] RESOLUTIONS = {480, 720, 1080, 2160, 4320};
+    private static final int FAILED_FILES_MAX = 2;
+    private static final long EXPIRY = TimeUnit.DAYS.toMillis(30);
+    private static final long SAVE_KEEP_ALIVE = 10;
+
+    // Store is serialized under the lock, file is written in order on its own thread
+    private static final ThreadPoolExecutor saveExecutor = new ThreadPoolExecutor(1, 1, SAVE_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        saveExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static HashMap<String, Entry> entries;
+
+    // Decoders failed in this player (by format key)
+    private final HashMap<String, HashSet<String>> sessionFailures = new HashMap<>();
+
+    private final Context context;
+    // Renderers of current player, to find an alternative for a format
+    private final ArrayList<FallbackRenderer> renderers = new ArrayList<>();
+
+    DecoderFallback(final Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    Renderer wrap(final Renderer renderer) {
+        final FallbackRenderer fallbackRenderer = new FallbackRenderer(renderer);
+        renderers.add(fallbackRenderer);
+        return fallbackRenderer;
+    }
+
+    static String getKey(final Format format) {
+        return getKey(format.sampleMimeType, format.codecs, format.width, format.height, format.channelCount);
+    }
+
+    // Codec, profile (codecs string) and resolution class or channel count
+    static String getKey(final String mimeType, @Nullable final String codecs, final int width, final int height, final int channelCount) {
+        final StringBuilder key = new StringBuilder()
+                .append(mimeType)
+                .append('/')
+                .append(codecs);
+        if (MimeTypes.isVideo(mimeType)) {
+            key.append('/').append(getResolution(width, height)).append('p');
+        } else {
+            key.append('/').append(channelCount).append("ch");
+        }
+        return key.toString();
+    }
+
+    private static int getResolution(final int width, final int height) {
+        if (width == Format.NO_VALUE || height == Format.NO_VALUE) {
+            return 0;
+        }
+        // Shorter side, so cropped (2.40:1) and portrait videos fall into the usual classes
+        final int size = Math.min(width, height);
+        for (int resolution : RESOLUTIONS) {
+            if (size <= resolution) {
+                return resolution;
+            }
+        }
+        return size;
+    }
+
+    // Returns true if there's a decoder left to retry with
+    boolean onError(final ExoPlaybackException error, @Nullable final Uri uri) {
+        if (error.type != ExoPlaybackException.TYPE_RENDERER || error.rendererFormat == null) {
+            return false;
+        }
+        final boolean permanent;
+        switch (error.errorCode) {
+            case PlaybackException.ERROR_CODE_DECODER_INIT_FAILED:
+            case PlaybackException.ERROR_CODE_DECODING_FAILED:
+                permanent = false;
+                break;
+            case PlaybackException.ERROR_CODE_DECODING_FORMAT_EXCEEDS_CAPABILITIES:
+            case PlaybackException.ERROR_CODE_DECODING_FORMAT_UNSUPPORTED:
+                permanent = true;
+                break;
+            default:
+                return false;
+        }
+
+        final String key = getKey(error.rendererFormat);
+        final String file = uri == null ? "" : Integer.toHexString(uri.toString().hashCode());
+        synchronized (DecoderFallback.class) {
+            HashSet<String> failed = sessionFailures.get(key);
+            if (failed == null) {
+                failed = new HashSet<>();
+                sessionFailures.put(key, failed);
+            }
+            Entry entry = getEntries().get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            boolean added = false;
+            for (String decoder : getFailedDecoders(error)) {
+                if (failed.add(decoder)) {
+                    added = true;
+                }
+                HashSet<String> files = entry.failures.get(decoder);
+                if (files == null) {
+                    files = new HashSet<>();
+                    entry.failures.put(decoder, files);
+                }
+                files.add(file);
+                if ((permanent || files.size() >= FAILED_FILES_MAX) && entry.blacklist.add(decoder)) {
+                    Utils.log("Decoder " + decoder + " failed for " + key);
+                    if (decoder.equals(entry.working)) {
+                        entry.working = null;
+                    }
+                }
+            }
+            entry.time = System.currentTimeMillis();
+            save(context);
+            return added;
+        }
+    }
+
+    private static List<String> getFailedDecoders(final ExoPlaybackException error) {
+        final ArrayList<String> decoders = new ArrayList<>();
+        final Exception cause = error.getRendererException();
+        if (cause instanceof MediaCodecRenderer.DecoderInitializationException) {
+            for (MediaCodecRenderer.DecoderInitializationException e = (MediaCodecRenderer.DecoderInitializationException) cause;
+                 e != null; e = e.fallbackDecoderInitializationException) {
+                if (e.codecInfo != null) {
+                    decoders.add(e.codecInfo.name);
+                }
+            }
+        } else if (cause instanceof MediaCodecDecoderException) {
+            final MediaCodecInfo codecInfo = ((MediaCodecDecoderException) cause).codecInfo;
+            if (codecInfo != null) {
+                decoders.add(codecInfo.name);
+            }
+        }
+        // Extension decoder or no device decoder left at all
+        if (decoders.isEmpty() && error.rendererName != null) {
+            decoders.add(error.rendererName);
+        }
+        return decoders;
+    }
+
+    // Called on playback thread
+    List<MediaCodecInfo> filter(final List<MediaCodecInfo> decoderInfos, final Format format) {
+        final String key = getKey(format);
+        final List<String> ranking = DecoderBenchmark.getRanking(context, format);
+        synchronized (DecoderFallback.class) {
+            final Entry entry = getEntries().get(key);
+            final HashSet<String> failed = sessionFailures.get(key);
+            if (!hasFailed(entry, failed) && ranking.isEmpty()) {
+                return decoderInfos;
+            }
+            final ArrayList<MediaCodecInfo> filtered = new ArrayList<>();
+            for (MediaCodecInfo decoderInfo : decoderInfos) {
+                if (!isBlacklisted(entry, failed, decoderInfo.name)) {
+                    filtered.add(decoderInfo);
+                }
+            }
+            // Stable sort: working decoder, benchmark ranking, usual order
+            Collections.sort(filtered, (a, b) -> Integer.compare(getRank(entry, ranking, a.name), getRank(entry, ranking, b.name)));
+            return filtered;
+        }
+    }
+
+    private static boolean hasFailed(@Nullable final Entry entry, @Nullable final HashSet<String> failed) {
+        return (entry != null && !entry.blacklist.isEmpty()) || (failed != null && !failed.isEmpty());
+    }
+
+    private static boolean isBlacklisted(@Nullable final Entry entry, @Nullable final HashSet<String> failed, final String decoder) {
+        return (entry != null && entry.blacklist.contains(decoder)) || (failed != null && failed.contains(decoder));
+    }
+
+    private static int getRank(@Nullable final Entry entry, final List<String> ranking, final String decoder) {
+        if (entry != null && decoder.equals(entry.working)) {
+            return -1;
+        }
+        final int rank = ranking.indexOf(decoder);
+        return rank < 0 ? Integer.MAX_VALUE : rank;
+    }
+
+    private boolean isAllowed(final FallbackRenderer renderer, final Format format) {
+        final String key = getKey(format);
+        final Entry entry;
+        final HashSet<String> failed;
+        final boolean fallback;
+        synchronized (DecoderFallback.class) {
+            entry = getEntries().get(key);
+            failed = sessionFailures.get(key);
+            fallback = hasFailed(entry, failed);
+        }
+        if (!fallback) {
+            // Renderer with the fastest decoder in benchmark instead of global priority
+            final FallbackRenderer fastest = getFastest(format, renderer.getTrackType());
+            return fastest == null || fastest == renderer;
+        }
+        synchronized (DecoderFallback.class) {
+            if (isBlacklisted(entry, failed, renderer.getName())) {
+                return false;
+            }
+            if (entry != null && entry.working != null) {
+                final FallbackRenderer owner = getOwner(entry.working, renderer.getTrackType());
+                return owner == null || owner == renderer;
+            }
+            // After device decoder failed, extension decoder is tried before alternative device decoders
+            if (renderer.isMediaCodec()) {
+                for (FallbackRenderer other : renderers) {
+                    if (other != renderer && !other.isMediaCodec() && other.getTrackType() == renderer.getTrackType()
+                            && !isBlacklisted(entry, failed, other.getName()) && other.handles(format)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    @Nullable
+    private FallbackRenderer getFastest(final Format format, final int trackType) {
+        for (String decoder : DecoderBenchmark.getRanking(context, format)) {
+            final FallbackRenderer owner = getOwner(decoder, trackType);
+            if (owner != null && owner.handles(format)) {
+                return owner;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private FallbackRenderer getOwner(final String decoder, final int trackType) {
+        FallbackRenderer mediaCodecRenderer = null;
+        for (FallbackRenderer renderer : renderers) {
+            if (renderer.getTrackType() != trackType) {
+                continue;
+            }
+            if (renderer.getName().equals(decoder)) {
+                return renderer;
+            }
+            if (renderer.isMediaCodec()) {
+                mediaCodecRenderer = renderer;
+            }
+        }
+        // Extension not enabled by decoder priority
+        if (RENDERER_AV1.equals(decoder) || RENDERER_FFMPEG.equals(decoder)) {
+            return null;
+        }
+        return mediaCodecRenderer;
+    }
+
+    // Working decoder is remembered only for formats with blacklisted decoders, otherwise usual priority applies
+    private void onWorking(final Format format, final String decoder) {
+        final String key = getKey(format);
+        synchronized (DecoderFallback.class) {
+            final Entry entry = getEntries().get(key);
+            if (entry == null) {
+                return;
+            }
+            // Failed before, so the failure was temporary
+            boolean changed = entry.failures.remove(decoder) != null;
+            changed |= entry.blacklist.remove(decoder);
+            final String working = entry.blacklist.isEmpty() ? null : decoder;
+            if (working != null ? !working.equals(entry.working) : entry.working != null) {
+                entry.working = working;
+                changed = true;
+            }
+            if (!changed) {
+                return;
+            }
+            if (entry.failures.isEmpty() && entry.blacklist.isEmpty()) {
+                entries.remove(key);
+            } else {
+                entry.time = System.currentTimeMillis();
+            }
+            save(context);
+        }
+    }
+
+    // Settings action, forgets failures of all decoders
+    static void reset(final Context context) {
+        synchronized (DecoderFallback.class) {
+            entries = new HashMap<>();
+            final Context appContext = context.getApplicationContext();
+            saveExecutor.execute(() -> appContext.deleteFile(FILE));
+        }
+    }
+
+    private HashMap<String, Entry> getEntries() {
+        if (entries == null) {
+            load(context);
+        }
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void load(final Context context) {
+        try (ObjectInputStream is = new ObjectInputStream(context.openFileInput(FILE))) {
+            // System update may bring fixed decoders
+            if (Build.FINGERPRINT.equals(is.readUTF())) {
+                entries = (HashMap<String, Entry>) is.readObject();
+            }
+        } catch (Exception e) {
+            // Nothing remembered yet
+        }
+        if (entries == null) {
+            entries = new HashMap<>();
+        }
+        final long now = System.currentTimeMillis();
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            if (now - iterator.next().time > EXPIRY) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // Called under class lock, entries are mutable so the snapshot is serialized right away
+    private static void save(final Context context) {
+        final ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(snapshot)) {
+            os.writeUTF(Build.FINGERPRINT);
+            os.writeObject(entries);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        saveExecutor.execute(() -> {
+            try (OutputStream os = context.openFileOutput(FILE, Context.MODE_PRIVATE)) {
+                snapshot.writeTo(os);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        // Decoder -> files (uri hashes) it failed for
+        final HashMap<String, HashSet<String>> failures = new HashMap<>();
+        final HashSet<String> blacklist = new HashSet<>();
+        String working;
+        long time;
+    }
+
+    // Implemented by device decoder renderers to report codec in use
+    interface MediaCodecDecoder {
+        @Nullable
+        String getCodecName();
+    }
+
+    // Hides renderer from track selection for formats where it's known to fail
+    private class FallbackRenderer implements Renderer, RendererCapabilities {
+
+        private final Renderer renderer;
+        private Format format;
+        private boolean confirmed;
+
+        FallbackRenderer(final Renderer renderer) {
+            this.renderer = renderer;
+        }
+
+        boolean isMediaCodec() {
+            return renderer instanceof MediaCodecRenderer;
+        }
+
+        boolean handles(final Format format) {
+            try {
+                return RendererCapabilities.getFormatSupport(renderer.getCapabilities().supportsFormat(format)) == C.FORMAT_HANDLED;
+            } catch (ExoPlaybackException e) {
+                return false;
+            }
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return renderer.getName();
+        }
+
+        @Override
+        public int getTrackType() {
+            return renderer.getTrackType();
+        }
+
+        @NonNull
+        @Override
+        public RendererCapabilities getCapabilities() {
+            return this;
+        }
+
+        @Override
+        public int supportsFormat(@NonNull Format format) throws ExoPlaybackException {
+            final int support = renderer.getCapabilities().supportsFormat(format);
+            if (RendererCapabilities.getFormatSupport(support) == C.FORMAT_HANDLED && !isAllowed(this, format)) {
+                return RendererCapabilities.create(C.FORMAT_UNSUPPORTED_SUBTYPE);
+            }
+            return support;
+        }
+
+        @Override
+        public int supportsMixedMimeTypeAdaptation() throws ExoPlaybackException {
+            return renderer.getCapabilities().supportsMixedMimeTypeAdaptation();
+        }
+
+        @Override
+        public void init(int index, @NonNull PlayerId playerId) {
+            renderer.init(index, playerId);
+        }
+
+        @Nullable
+        @Override
+        public MediaClock getMediaClock() {
+            return renderer.getMediaClock();
+        }
+
+        @Override
+        public int getState() {
+            return renderer.getState();
+        }
+
+        @Override
+        public void enable(@NonNull RendererConfiguration configuration, @NonNull Format[] formats, @NonNull SampleStream stream, long positionUs,
+                           boolean joining, boolean mayRenderStartOfStream, long startPositionUs, long offsetUs) throws ExoPlaybackException {
+            renderer.enable(configuration, formats, stream, positionUs, joining, mayRenderStartOfStream, startPositionUs, offsetUs);
+            setFormat(formats);
+        }
+
+        @Override
+        public void start() throws ExoPlaybackException {
+            renderer.start();
+        }
+
+        @Override
+        public void replaceStream(@NonNull Format[] formats, @NonNull SampleStream stream, long startPositionUs, long offsetUs) throws ExoPlaybackException {
+            renderer.replaceStream(formats, stream, startPositionUs, offsetUs);
+            setFormat(formats);
+        }
+
+        private void setFormat(final Format[] formats) {
+            format = formats.length > 0 ? formats[0] : null;
+            confirmed = false;
+        }
+
+        @Nullable
+        @Override
+        public SampleStream getStream() {
+            return renderer.getStream();
+        }
+
+        @Override
+        public boolean hasReadStreamToEnd() {
+            return renderer.hasReadStreamToEnd();
+        }
+
+        @Override
+        public long getReadingPositionUs() {
+            return renderer.getReadingPositionUs();
+        }
+
+        @Override
+        public void setCurrentStreamFinal() {
+            renderer.setCurrentStreamFinal();
+        }
+
+        @Override
+        public boolean isCurrentStreamFinal() {
+            return renderer.isCurrentStreamFinal();
+        }
+
+        @Override
+        public void maybeThrowStreamError() throws IOException {
+            renderer.maybeThrowStreamError();
+        }
+
+        @Override
+        public void resetPosition(long positionUs) throws ExoPlaybackException {
+            renderer.resetPosition(positionUs);
+        }
+
+        @Override
+        public void setPlaybackSpeed(float currentPlaybackSpeed, float targetPlaybackSpeed) throws ExoPlaybackException {
+            renderer.setPlaybackSpeed(currentPlaybackSpeed, targetPlaybackSpeed);
+        }
+
+        @Override
+        public void render(long positionUs, long elapsedRealtimeUs) throws ExoPlaybackException {
+            renderer.render(positionUs, elapsedRealtimeUs);
+            // Decoder got to output, so it works for this format
+            if (!confirmed && format != null && renderer.isReady()) {
+                confirmed = true;
+                final String decoder = renderer instanceof MediaCodecDecoder ? ((MediaCodecDecoder) renderer).getCodecName() : renderer.getName();
+                if (decoder != null) {
+                    onWorking(format, decoder);
+                }
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return renderer.isReady();
+        }
+
+        @Override
+        public boolean isEnded() {
+            return renderer.isEnded();
+        }
+
+        @Override
+        public void stop() {
+            renderer.stop();
+        }
+
+        @Override
+        public void disable() {
+            renderer.disable();
+            format = null;
+        }
+
+        @Override
+        public void reset() {
+            renderer.reset();
+        }
+
+        @Override
+        public void handleMessage(int messageType, @Nullable Object message) throws ExoPlaybackException {
+            renderer.handleMessage(messageType, message);
+        }
+    }
+}
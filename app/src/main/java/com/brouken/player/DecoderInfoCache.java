@@ -0,0 +1,112 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.mediacodec.MediaCodecInfo;
+import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
+import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each uncached decoder query enumerates MediaCodecList and codec capabilities (slow on some boxes).
+ * Queries made before (per build fingerprint) are repeated on background thread at startup,
+ * so decoder selection on open is a lookup in MediaCodecUtil's in-memory cache.
+ */
+class DecoderInfoCache implements MediaCodecSelector {
+
+    private static final String FILE = "decoderInfo";
+    private static final long SAVE_KEEP_ALIVE = 10;
+
+    // Queries come from playback thread, file is written in order on its own thread
+    private static final ThreadPoolExecutor saveExecutor = new ThreadPoolExecutor(1, 1, SAVE_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        saveExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Query (mime type, secure, tunneling) to decoder names
+    private static HashMap<String, ArrayList<String>> queries;
+    private static Context context;
+
+    static synchronized void warm(final Context context) {
+        if (DecoderInfoCache.context != null) {
+            return;
+        }
+        DecoderInfoCache.context = context.getApplicationContext();
+        new Thread(() -> {
+            final ArrayList<String> keys;
+            synchronized (DecoderInfoCache.class) {
+                load();
+                keys = new ArrayList<>(queries.keySet());
+            }
+            final long start = System.currentTimeMillis();
+            for (String key : keys) {
+                final String[] parts = key.split(":");
+                MediaCodecUtil.warmDecoderInfoCache(parts[0], Boolean.parseBoolean(parts[1]), Boolean.parseBoolean(parts[2]));
+            }
+            Utils.log("Decoder info warm up: " + keys.size() + " queries, " + (System.currentTimeMillis() - start) + " ms");
+        }).start();
+    }
+
+    @NonNull
+    @Override
+    public List<MediaCodecInfo> getDecoderInfos(@NonNull String mimeType, boolean requiresSecureDecoder, boolean requiresTunnelingDecoder)
+            throws MediaCodecUtil.DecoderQueryException {
+        final List<MediaCodecInfo> decoderInfos = MediaCodecUtil.getDecoderInfos(mimeType, requiresSecureDecoder, requiresTunnelingDecoder);
+        update(mimeType + ":" + requiresSecureDecoder + ":" + requiresTunnelingDecoder, decoderInfos);
+        return decoderInfos;
+    }
+
+    private static synchronized void update(final String key, final List<MediaCodecInfo> decoderInfos) {
+        if (context == null) {
+            return;
+        }
+        if (queries == null) {
+            load();
+        }
+        final ArrayList<String> names = new ArrayList<>();
+        for (MediaCodecInfo decoderInfo : decoderInfos) {
+            names.add(decoderInfo.name);
+        }
+        if (!names.equals(queries.get(key))) {
+            queries.put(key, names);
+            final HashMap<String, ArrayList<String>> snapshot = new HashMap<>(queries);
+            saveExecutor.execute(() -> save(snapshot));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void load() {
+        try (ObjectInputStream is = new ObjectInputStream(context.openFileInput(FILE))) {
+            // Decoders change with system update
+            if (Build.FINGERPRINT.equals(is.readUTF())) {
+                queries = (HashMap<String, ArrayList<String>>) is.readObject();
+            }
+        } catch (Exception e) {
+            // Nothing cached yet
+        }
+        if (queries == null) {
+            queries = new HashMap<>();
+        }
+    }
+
+    private static void save(final HashMap<String, ArrayList<String>> snapshot) {
+        try (ObjectOutputStream os = new ObjectOutputStream(context.openFileOutput(FILE, Context.MODE_PRIVATE))) {
+            os.writeUTF(Build.FINGERPRINT);
+            os.writeObject(snapshot);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.brouken.player;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.audio.BaseAudioProcessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Night mode: look-ahead compressor with makeup gain, so quiet passages get louder and loud ones quieter.
+ * Dialogue is boosted before compression - center channel of multichannel audio (it stays louder in any downmix),
+ * mid (L+R) of stereo. Nothing is allocated while processing, buffers only change with audio format.
+ */
+class DynamicRangeProcessor extends BaseAudioProcessor {
+
+    private static final float LOOKAHEAD_MS = 5f;
+    private static final float RELEASE_MS = 250f;
+    private static final float THRESHOLD_DB = -30f;
+    private static final float RATIO = 4f;
+    private static final float MAKEUP_DB = 12f;
+    private static final float DIALOGUE_DB = 4f;
+
+    // FL, FR, FC, ... in layouts with center channel (3.0, 5.0, 5.1, 7.1)
+    private static final int CENTER = 2;
+
+    private final float threshold = dbToLinear(THRESHOLD_DB);
+    private final float exponent = 1f - 1f / RATIO;
+    private final float makeup = dbToLinear(MAKEUP_DB);
+    private final float dialogue = dbToLinear(DIALOGUE_DB);
+
+    // Ring of delayed frames (interleaved)
+    private float[] delay = new float[0];
+    private float[] frame = new float[0];
+    private int delayFrames;
+    private int delayPosition;
+    private float envelope;
+    private float attack;
+    private float release;
+
+    @NonNull
+    @Override
+    protected AudioFormat onConfigure(@NonNull AudioFormat inputAudioFormat) throws UnhandledAudioFormatException {
+        if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT && inputAudioFormat.encoding != C.ENCODING_PCM_FLOAT) {
+            throw new UnhandledAudioFormatException(inputAudioFormat);
+        }
+        return inputAudioFormat;
+    }
+
+    @Override
+    public void queueInput(@NonNull ByteBuffer inputBuffer) {
+        final int frames = inputBuffer.remaining() / inputAudioFormat.bytesPerFrame;
+        final ByteBuffer outputBuffer = replaceOutputBuffer(frames * inputAudioFormat.bytesPerFrame);
+        final boolean pcmFloat = inputAudioFormat.encoding == C.ENCODING_PCM_FLOAT;
+        final int channels = inputAudioFormat.channelCount;
+        final int center = channels == 3 || channels >= 5 ? CENTER : -1;
+
+        for (int i = 0; i < frames; i++) {
+            float level = 0;
+            for (int c = 0; c < channels; c++) {
+                float sample = pcmFloat ? inputBuffer.getFloat() : inputBuffer.getShort() / 32768f;
+                if (c == center) {
+                    sample *= dialogue;
+                }
+                frame[c] = sample;
+            }
+            if (channels == 2) {
+                final float mid = (frame[0] + frame[1]) * 0.5f * (dialogue - 1f);
+                frame[0] += mid;
+                frame[1] += mid;
+            }
+            for (int c = 0; c < channels; c++) {
+                level = Math.max(level, Math.abs(frame[c]));
+            }
+
+            final float gain = getGain(level);
+            final int offset = delayPosition * channels;
+            for (int c = 0; c < channels; c++) {
+                final float sample = delay[offset + c] * gain;
+                delay[offset + c] = frame[c];
+                write(outputBuffer, sample, pcmFloat);
+            }
+            delayPosition = (delayPosition + 1) % delayFrames;
+        }
+        outputBuffer.flip();
+    }
+
+    @Override
+    protected void onQueueEndOfStream() {
+        // Drain the delay line
+        final ByteBuffer outputBuffer = replaceOutputBuffer(delayFrames * inputAudioFormat.bytesPerFrame);
+        final boolean pcmFloat = inputAudioFormat.encoding == C.ENCODING_PCM_FLOAT;
+        final int channels = inputAudioFormat.channelCount;
+        for (int i = 0; i < delayFrames; i++) {
+            final float gain = getGain(0);
+            final int offset = delayPosition * channels;
+            for (int c = 0; c < channels; c++) {
+                write(outputBuffer, delay[offset + c] * gain, pcmFloat);
+                delay[offset + c] = 0;
+            }
+            delayPosition = (delayPosition + 1) % delayFrames;
+        }
+        outputBuffer.flip();
+    }
+
+    @Override
+    protected void onFlush() {
+        // Configured format becomes active on flush
+        if (isActive()) {
+            delayFrames = Math.max(1, Math.round(inputAudioFormat.sampleRate * LOOKAHEAD_MS / 1000));
+            // Time constant of a third of the look-ahead, so the envelope is at 95 % of a peak by the time it leaves the delay line
+            attack = (float) Math.exp(-3.0 / delayFrames);
+            release = (float) Math.exp(-1000.0 / (inputAudioFormat.sampleRate * RELEASE_MS));
+            if (delay.length != delayFrames * inputAudioFormat.channelCount) {
+                delay = new float[delayFrames * inputAudioFormat.channelCount];
+                frame = new float[inputAudioFormat.channelCount];
+            }
+        }
+        clear();
+    }
+
+    @Override
+    protected void onReset() {
+        clear();
+        delay = new float[0];
+        frame = new float[0];
+    }
+
+    private void clear() {
+        for (int i = 0; i < delay.length; i++) {
+            delay[i] = 0;
+        }
+        delayPosition = 0;
+        envelope = 0;
+    }
+
+    private float getGain(final float level) {
+        final float coefficient = level > envelope ? attack : release;
+        envelope = coefficient * envelope + (1f - coefficient) * level;
+        if (envelope <= threshold) {
+            return makeup;
+        }
+        return makeup * (float) Math.pow(threshold / envelope, exponent);
+    }
+
+    private static void write(final ByteBuffer outputBuffer, final float sample, final boolean pcmFloat) {
+        final float clipped = Math.max(-1f, Math.min(1f, sample));
+        if (pcmFloat) {
+            outputBuffer.putFloat(clipped);
+        } else {
+            outputBuffer.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(clipped * 32768))));
+        }
+    }
+
+    private static float dbToLinear(final float db) {
+        return (float) Math.pow(10, db / 20);
+    }
+}
@@ -0,0 +1,417 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.upstream.BaseDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceException;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads local (file and content) media using FileChannel with large aligned reads.
+ * Separate thread reads ahead into a ring of reused buffers, so slow storage (USB drives)
+ * is read in parallel with extraction. Reads after open start small and grow, so first bytes
+ * after seek or sniff don't wait for a whole buffer.
+ */
+class FileChannelDataSource extends BaseDataSource {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int FIRST_READ_SIZE = 64 * 1024;
+    // Reader thread is kept for following opens (seeks), ends when source is not used
+    private static final long READER_KEEP_ALIVE = 10;
+    private static final int BUFFER_COUNT = 4;
+    private static final int ALIGNMENT = 4096;
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    // Last measured read speed of storage (bytes per second)
+    private static volatile long throughput;
+
+    private final Context context;
+
+    // Allocated buffers, owned by current reader and passed to the next one when it's finished
+    private List<ByteBuffer> buffers = new ArrayList<>();
+
+    private Uri uri;
+    private ParcelFileDescriptor parcelFileDescriptor;
+    private FileInputStream inputStream;
+    private FileChannel channel;
+    private final ThreadPoolExecutor readerExecutor;
+    private Reader reader;
+
+    private ByteBuffer currentBuffer;
+    private int skip;
+    private long bytesRemaining;
+    private boolean opened;
+
+    FileChannelDataSource(final Context context) {
+        super(false);
+        this.context = context.getApplicationContext();
+        readerExecutor = new ThreadPoolExecutor(1, 1, READER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        readerExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    static boolean isSupported(final Uri uri) {
+        final String scheme = uri.getScheme();
+        return scheme == null || ContentResolver.SCHEME_FILE.equals(scheme) || ContentResolver.SCHEME_CONTENT.equals(scheme);
+    }
+
+    static long getThroughput() {
+        return throughput;
+    }
+
+    @Override
+    public long open(@NonNull DataSpec dataSpec) throws IOException {
+        uri = dataSpec.uri;
+        transferInitializing(dataSpec);
+
+        try {
+            if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+                parcelFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+            } else {
+                parcelFileDescriptor = ParcelFileDescriptor.open(new File(uri.getPath()), ParcelFileDescriptor.MODE_READ_ONLY);
+            }
+        } catch (FileNotFoundException e) {
+            throw new DataSourceException(e, PlaybackException.ERROR_CODE_IO_FILE_NOT_FOUND);
+        } catch (SecurityException e) {
+            throw new DataSourceException(e, PlaybackException.ERROR_CODE_IO_NO_PERMISSION);
+        }
+        if (parcelFileDescriptor == null) {
+            throw new DataSourceException(PlaybackException.ERROR_CODE_IO_FILE_NOT_FOUND);
+        }
+
+        // Pipes and sockets (some providers stream content) can't be read by position
+        final long size = parcelFileDescriptor.getStatSize();
+        if (size < 0) {
+            throw new UnseekableException();
+        }
+        if (dataSpec.position > size) {
+            throw new DataSourceException(PlaybackException.ERROR_CODE_IO_READ_POSITION_OUT_OF_RANGE);
+        }
+
+        inputStream = new FileInputStream(parcelFileDescriptor.getFileDescriptor());
+        channel = inputStream.getChannel();
+
+        bytesRemaining = dataSpec.length != C.LENGTH_UNSET ? Math.min(dataSpec.length, size - dataSpec.position) : size - dataSpec.position;
+        final long end = dataSpec.position + bytesRemaining;
+        final long alignedStart = dataSpec.position - dataSpec.position % ALIGNMENT;
+        skip = (int) (dataSpec.position - alignedStart);
+
+        reader = new Reader(channel, buffers, alignedStart, end);
+        readerExecutor.execute(reader);
+
+        opened = true;
+        transferStarted(dataSpec);
+        return bytesRemaining;
+    }
+
+    // Read ahead for one open with its own channel and queues, stopped by close()
+    private static class Reader implements Runnable {
+
+        private final FileChannel channel;
+        private final List<ByteBuffer> buffers;
+        private final LinkedBlockingQueue<ByteBuffer> freeBuffers = new LinkedBlockingQueue<>();
+        private final LinkedBlockingQueue<ByteBuffer> filledBuffers = new LinkedBlockingQueue<>();
+        private final long start;
+        private final long end;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean stopped;
+        private volatile IOException exception;
+        private Thread thread;
+
+        Reader(final FileChannel channel, final List<ByteBuffer> buffers, final long start, final long end) {
+            this.channel = channel;
+            this.buffers = new ArrayList<>(buffers);
+            freeBuffers.addAll(buffers);
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (stopped) {
+                    finished.countDown();
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                readAhead(start);
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                }
+                // Thread is reused, interrupt from stop() must not reach next open
+                Thread.interrupted();
+                finished.countDown();
+            }
+        }
+
+        // Buffers of the reader can be reused once this returns
+        void stop() {
+            synchronized (this) {
+                stopped = true;
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+            // Loader interrupts the loading thread when load is canceled (seek), wait anyway
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void readAhead(long position) {
+            long bytesRead = 0;
+            long readTime = 0;
+            int readSize = FIRST_READ_SIZE;
+            try {
+                while (position < end) {
+                    ByteBuffer buffer = freeBuffers.poll();
+                    if (buffer == null) {
+                        if (buffers.size() < BUFFER_COUNT) {
+                            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                            buffers.add(buffer);
+                        } else {
+                            buffer = freeBuffers.take();
+                        }
+                    }
+                    buffer.clear();
+                    buffer.limit((int) Math.min(readSize, end - position));
+                    readSize = Math.min(BUFFER_SIZE, readSize * 2);
+
+                    final long start = System.nanoTime();
+                    while (buffer.hasRemaining()) {
+                        final int read = channel.read(buffer, position + buffer.position());
+                        if (read < 0) {
+                            break;
+                        }
+                    }
+                    readTime += System.nanoTime() - start;
+                    bytesRead += buffer.position();
+                    if (readTime > 0) {
+                        throughput = bytesRead * 1_000_000_000L / readTime;
+                    }
+
+                    if (buffer.position() == 0) {
+                        break;
+                    }
+                    position += buffer.position();
+                    buffer.flip();
+                    filledBuffers.put(buffer);
+                }
+            } catch (InterruptedException | InterruptedIOException e) {
+                // Closed
+                return;
+            } catch (AsynchronousCloseException e) {
+                // Interrupt while reading closes the channel
+                if (stopped) {
+                    return;
+                }
+                exception = e;
+            } catch (IOException e) {
+                exception = e;
+            }
+            filledBuffers.offer(END);
+        }
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (bytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        if (currentBuffer == null || !currentBuffer.hasRemaining()) {
+            if (currentBuffer != null) {
+                reader.freeBuffers.offer(currentBuffer);
+                currentBuffer = null;
+            }
+            final ByteBuffer next;
+            try {
+                next = reader.filledBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (next == END) {
+                reader.filledBuffers.offer(END);
+                if (reader.exception != null) {
+                    throw new DataSourceException(reader.exception, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+                }
+                return C.RESULT_END_OF_INPUT;
+            }
+            currentBuffer = next;
+            // Start of aligned read precedes requested position
+            if (skip > 0) {
+                final int skipped = Math.min(skip, currentBuffer.remaining());
+                currentBuffer.position(currentBuffer.position() + skipped);
+                skip -= skipped;
+                if (!currentBuffer.hasRemaining()) {
+                    return read(buffer, offset, length);
+                }
+            }
+        }
+
+        final int bytesToRead = (int) Math.min(Math.min(length, currentBuffer.remaining()), bytesRemaining);
+        currentBuffer.get(buffer, offset, bytesToRead);
+        bytesRemaining -= bytesToRead;
+        bytesTransferred(bytesToRead);
+        return bytesToRead;
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+        return uri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        uri = null;
+        if (reader != null) {
+            reader.stop();
+            buffers = reader.buffers;
+            reader = null;
+        }
+        currentBuffer = null;
+        try {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+            if (parcelFileDescriptor != null) {
+                parcelFileDescriptor.close();
+            }
+        } catch (IOException e) {
+            throw new DataSourceException(e, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+        } finally {
+            inputStream = null;
+            channel = null;
+            parcelFileDescriptor = null;
+            if (opened) {
+                opened = false;
+                transferEnded();
+            }
+        }
+    }
+
+    private static class UnseekableException extends IOException {
+    }
+
+    // Uses FileChannelDataSource for local files, anything else (or non seekable content) goes to the default source
+    static class Factory implements DataSource.Factory {
+
+        private final Context context;
+        private final DataSource.Factory defaultDataSourceFactory;
+
+        Factory(final Context context, final DataSource.Factory defaultDataSourceFactory) {
+            this.context = context.getApplicationContext();
+            this.defaultDataSourceFactory = defaultDataSourceFactory;
+            throughput = 0;
+        }
+
+        @NonNull
+        @Override
+        public DataSource createDataSource() {
+            return new RoutingDataSource(new FileChannelDataSource(context), defaultDataSourceFactory.createDataSource());
+        }
+    }
+
+    private static class RoutingDataSource implements DataSource {
+
+        private final FileChannelDataSource fileChannelDataSource;
+        private final DataSource defaultDataSource;
+        private DataSource dataSource;
+
+        RoutingDataSource(final FileChannelDataSource fileChannelDataSource, final DataSource defaultDataSource) {
+            this.fileChannelDataSource = fileChannelDataSource;
+            this.defaultDataSource = defaultDataSource;
+        }
+
+        @Override
+        public void addTransferListener(@NonNull TransferListener transferListener) {
+            fileChannelDataSource.addTransferListener(transferListener);
+            defaultDataSource.addTransferListener(transferListener);
+        }
+
+        @Override
+        public long open(@NonNull DataSpec dataSpec) throws IOException {
+            if (isSupported(dataSpec.uri)) {
+                try {
+                    dataSource = fileChannelDataSource;
+                    return dataSource.open(dataSpec);
+                } catch (UnseekableException e) {
+                    fileChannelDataSource.close();
+                }
+            }
+            dataSource = defaultDataSource;
+            return dataSource.open(dataSpec);
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            return dataSource.read(buffer, offset, length);
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return dataSource == null ? null : dataSource.getUri();
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            return dataSource == null ? DataSource.super.getResponseHeaders() : dataSource.getResponseHeaders();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (dataSource != null) {
+                try {
+                    dataSource.close();
+                } finally {
+                    dataSource = null;
+                }
+            }
+        }
+    }
+}
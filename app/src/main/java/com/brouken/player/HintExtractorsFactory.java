@@ -0,0 +1,113 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.util.FileTypes;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Extractor for the known container is sniffed first, the rest follow as usual
+class HintExtractorsFactory implements ExtractorsFactory {
+
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    private final Context context;
+    private final ExtractorsFactory extractorsFactory;
+    private final Uri mediaUri;
+    private final String mimeType;
+
+    private volatile int fileType = FileTypes.UNKNOWN;
+
+    HintExtractorsFactory(final Context context, final ExtractorsFactory extractorsFactory, final Uri mediaUri, final String mimeType) {
+        this.context = context.getApplicationContext();
+        this.extractorsFactory = extractorsFactory;
+        this.mediaUri = mediaUri;
+        this.mimeType = mimeType;
+    }
+
+    @NonNull
+    @Override
+    public Extractor[] createExtractors() {
+        return extractorsFactory.createExtractors();
+    }
+
+    // Called on loading thread
+    @NonNull
+    @Override
+    public Extractor[] createExtractors(@NonNull Uri uri, @NonNull Map<String, List<String>> responseHeaders) {
+        if (!uri.equals(mediaUri)) {
+            return extractorsFactory.createExtractors(uri, responseHeaders);
+        }
+
+        // Order: response headers, mime type from intent/provider, uri, file name
+        int fileType = FileTypes.inferFileTypeFromResponseHeaders(responseHeaders);
+        if (fileType == FileTypes.UNKNOWN && mimeType != null) {
+            fileType = FileTypes.inferFileTypeFromMimeType(mimeType);
+            if (fileType != FileTypes.UNKNOWN) {
+                final Map<String, List<String>> headers = new HashMap<>(responseHeaders);
+                headers.put(HEADER_CONTENT_TYPE, Collections.singletonList(mimeType));
+                responseHeaders = headers;
+            }
+        }
+        if (fileType == FileTypes.UNKNOWN) {
+            fileType = FileTypes.inferFileTypeFromUri(uri);
+        }
+        if (fileType == FileTypes.UNKNOWN && !Utils.isSupportedNetworkUri(uri)) {
+            // Document and MediaStore uris usually have no extension
+            final String fileName = MediaIndex.getFileName(context, uri);
+            if (fileName != null) {
+                final Uri fileNameUri = new Uri.Builder().appendPath(fileName).build();
+                fileType = FileTypes.inferFileTypeFromUri(fileNameUri);
+                if (fileType != FileTypes.UNKNOWN) {
+                    uri = fileNameUri;
+                }
+            }
+        }
+        this.fileType = fileType;
+        return extractorsFactory.createExtractors(uri, responseHeaders);
+    }
+
+    // Container name for reports, null when not known before sniffing
+    String getContainer() {
+        switch (fileType) {
+            case FileTypes.MATROSKA:
+                return "mkv";
+            case FileTypes.MP4:
+                return "mp4";
+            case FileTypes.TS:
+                return "ts";
+            case FileTypes.PS:
+                return "ps";
+            case FileTypes.AVI:
+                return "avi";
+            case FileTypes.FLV:
+                return "flv";
+            case FileTypes.OGG:
+                return "ogg";
+            case FileTypes.MP3:
+                return "mp3";
+            case FileTypes.FLAC:
+                return "flac";
+            case FileTypes.WAV:
+                return "wav";
+            case FileTypes.ADTS:
+                return "aac";
+            case FileTypes.AC3:
+                return "ac3";
+            case FileTypes.AC4:
+                return "ac4";
+            case FileTypes.AMR:
+                return "amr";
+            default:
+                return null;
+        }
+    }
+}
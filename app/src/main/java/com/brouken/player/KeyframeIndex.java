@@ -0,0 +1,216 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.arthenica.ffmpegkit.FFmpegKit;
+import com.arthenica.ffmpegkit.FFmpegKitConfig;
+import com.arthenica.ffmpegkit.FFprobeSession;
+import com.arthenica.ffmpegkit.MediaInformation;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.SeekParameters;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+class KeyframeIndex {
+
+    private static final String CACHE_DIR = "keyframes";
+    private static final int CACHE_FILES = 50;
+
+    private final Context context;
+    private final Uri uri;
+    private Thread thread;
+    private volatile FFprobeSession session;
+    private volatile boolean stopped;
+
+    // Sorted keyframe positions (ms)
+    private volatile long[] keyframes;
+
+    KeyframeIndex(final Context context, final Uri uri) {
+        this.context = context.getApplicationContext();
+        this.uri = uri;
+    }
+
+    // MPEG-TS only: its seek map has no sync points, so ExoPlayer ignores sync seek parameters and decodes
+    // (and drops) frames from the previous keyframe up to the target. Matroska cues are keyframes already.
+    static boolean isSupported(final Uri uri, final String mimeType) {
+        if (uri == null || Utils.isSupportedNetworkUri(uri))
+            return false;
+        if (mimeType != null && mimeType.equals("video/mp2ts"))
+            return true;
+        final String path = uri.getPath();
+        if (path == null)
+            return false;
+        final String lowerPath = path.toLowerCase();
+        return lowerPath.endsWith(".ts") || lowerPath.endsWith(".m2ts") || lowerPath.endsWith(".mts");
+    }
+
+    void start() {
+        thread = new Thread(() -> {
+            String key = MediaFingerprint.get(context, uri);
+            if (key == null)
+                key = Integer.toHexString(uri.toString().hashCode());
+            final File file = new File(getCacheDir(context), key);
+            if (!load(file) && !stopped)
+                build(file);
+        });
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+        final FFprobeSession session = this.session;
+        if (session != null) {
+            FFmpegKit.cancel(session.getSessionId());
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    boolean isReady() {
+        return keyframes != null && keyframes.length > 1;
+    }
+
+    long snap(final long position, final SeekParameters seekParameters) {
+        final long[] keyframes = this.keyframes;
+        if (keyframes == null || keyframes.length == 0)
+            return C.TIME_UNSET;
+
+        int index = Arrays.binarySearch(keyframes, position);
+        if (index >= 0)
+            return keyframes[index];
+        index = -index - 1;
+
+        final long previous = index > 0 ? keyframes[index - 1] : keyframes[0];
+        final long next = index < keyframes.length ? keyframes[index] : keyframes[keyframes.length - 1];
+        if (seekParameters.equals(SeekParameters.PREVIOUS_SYNC))
+            return previous;
+        if (seekParameters.equals(SeekParameters.NEXT_SYNC))
+            return next;
+        return position - previous <= next - position ? previous : next;
+    }
+
+    // Seek straight to known keyframe (EXACT) or leave sync point lookup to ExoPlayer
+    static void seek(final ExoPlayer player, final KeyframeIndex keyframeIndex, final long position, final SeekParameters seekParameters) {
+        if (keyframeIndex != null && keyframeIndex.isReady() && !SeekParameters.EXACT.equals(seekParameters)) {
+            final long keyframe = keyframeIndex.snap(position, seekParameters);
+            if (keyframe != C.TIME_UNSET) {
+                player.setSeekParameters(SeekParameters.EXACT);
+                player.seekTo(keyframe);
+                return;
+            }
+        }
+        player.setSeekParameters(seekParameters);
+        player.seekTo(position);
+    }
+
+    private static File getCacheDir(final Context context) {
+        final File dir = new File(context.getCacheDir(), CACHE_DIR);
+        if (!dir.exists())
+            dir.mkdirs();
+        return dir;
+    }
+
+    private boolean load(final File file) {
+        if (!file.exists())
+            return false;
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            final int count = inputStream.readInt();
+            final long[] keyframes = new long[count];
+            for (int i = 0; i < count; i++) {
+                keyframes[i] = inputStream.readLong();
+            }
+            this.keyframes = keyframes;
+            file.setLastModified(System.currentTimeMillis());
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            file.delete();
+            return false;
+        }
+    }
+
+    private void build(final File file) {
+        // Positions in ExoPlayer are relative to container start time
+        double startTime = 0;
+        final MediaInformation mediaInformation = Utils.getMediaInformation(context, uri);
+        if (mediaInformation != null && mediaInformation.getStartTime() != null) {
+            try {
+                startTime = Double.parseDouble(mediaInformation.getStartTime());
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+        if (stopped)
+            return;
+
+        // SAF parameter can be used only once
+        final String path = Utils.getFfmpegPath(context, uri);
+        if (path == null)
+            return;
+        final FFprobeSession session = new FFprobeSession(new String[] {
+                "-v", "error",
+                "-select_streams", "v:0",
+                "-show_entries", "packet=pts_time,flags",
+                "-of", "csv=p=0",
+                path
+        });
+        this.session = session;
+        // Stopped before session was visible to stop()
+        if (stopped)
+            return;
+        FFmpegKitConfig.ffprobeExecute(session);
+        this.session = null;
+        final String output = session.getOutput();
+        if (output == null || stopped)
+            return;
+
+        final String[] lines = output.split("\n");
+        long[] keyframes = new long[256];
+        int count = 0;
+        for (String line : lines) {
+            final int comma = line.indexOf(',');
+            if (comma < 1 || line.indexOf('K', comma) < 0)
+                continue;
+            try {
+                final long keyframe = Math.round((Double.parseDouble(line.substring(0, comma)) - startTime) * 1000);
+                if (count == keyframes.length)
+                    keyframes = Arrays.copyOf(keyframes, count * 2);
+                keyframes[count++] = Math.max(0, keyframe);
+            } catch (NumberFormatException ignored) {}
+        }
+        if (count == 0)
+            return;
+        keyframes = Arrays.copyOf(keyframes, count);
+        Arrays.sort(keyframes);
+        this.keyframes = keyframes;
+
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            outputStream.writeInt(keyframes.length);
+            for (long keyframe : keyframes) {
+                outputStream.writeLong(keyframe);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        final File[] files = file.getParentFile().listFiles();
+        if (files != null && files.length > CACHE_FILES) {
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (int i = 0; i < files.length - CACHE_FILES; i++) {
+                files[i].delete();
+            }
+        }
+    }
+}
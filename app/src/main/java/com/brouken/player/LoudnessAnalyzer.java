@@ -0,0 +1,180 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.arthenica.ffmpegkit.FFmpegKit;
+import com.arthenica.ffmpegkit.FFmpegKitConfig;
+import com.arthenica.ffmpegkit.FFmpegSession;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Integrated loudness and true peak (EBU R128) of the first audio track measured by ffmpeg in background
+ * and cached per file. Player applies normalization gain at open, nothing is analyzed on the audio thread.
+ */
+class LoudnessAnalyzer {
+
+    private static final String CACHE_DIR = "loudness";
+    private static final int CACHE_FILES = 500;
+
+    private static final float TARGET_LOUDNESS = -18f;
+    private static final float MAX_GAIN = 12f;
+    // LoudnessEnhancer limits peaks pushed above full scale, don't rely on it too much
+    private static final float MAX_LIMITING = 6f;
+    // Measured loudness of silence
+    private static final float MIN_LOUDNESS = -70f;
+
+    private static final Pattern PATTERN_LOUDNESS = Pattern.compile("I:\\s+(-?[0-9.]+) LUFS");
+    private static final Pattern PATTERN_PEAK = Pattern.compile("Peak:\\s+(-?[0-9.]+|-inf) dBFS");
+
+    interface Listener {
+        void onAnalyzed(LoudnessAnalyzer loudnessAnalyzer, int gain);
+    }
+
+    private final Context context;
+    private final Uri uri;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private Thread thread;
+    private volatile FFmpegSession session;
+
+    LoudnessAnalyzer(final Context context, final Uri uri, final Listener listener) {
+        this.context = context.getApplicationContext();
+        this.uri = uri;
+        this.listener = listener;
+    }
+
+    void start() {
+        thread = new Thread(() -> {
+            String key = MediaFingerprint.get(context, uri);
+            if (key == null)
+                key = Integer.toHexString(uri.toString().hashCode());
+            final File file = new File(getCacheDir(context), key);
+            float[] result = load(file);
+            if (result == null && !Thread.currentThread().isInterrupted()) {
+                result = analyze();
+                if (result != null)
+                    save(file, result);
+            }
+            if (result == null || Thread.currentThread().isInterrupted())
+                return;
+            final int gain = getGain(result[0], result[1]);
+            Utils.log("Loudness: " + result[0] + " LUFS, true peak: " + result[1] + " dBTP, gain: " + gain + " mB");
+            handler.post(() -> listener.onAnalyzed(this, gain));
+        });
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+        final FFmpegSession session = this.session;
+        if (session != null) {
+            FFmpegKit.cancel(session.getSessionId());
+        }
+    }
+
+    // Normalization gain (mB) for measured loudness (LUFS) and true peak (dBTP)
+    static int getGain(final float loudness, final float peak) {
+        if (loudness <= MIN_LOUDNESS)
+            return 0;
+        float gain = Math.min(TARGET_LOUDNESS - loudness, MAX_GAIN);
+        if (gain > 0)
+            gain = Math.max(0, Math.min(gain, MAX_LIMITING - peak));
+        return Math.round(gain * 100);
+    }
+
+    // Integrated loudness and true peak, null if there's no audio or analysis failed
+    private float[] analyze() {
+        // SAF parameter can be used only once
+        final String path = Utils.getFfmpegPath(context, uri);
+        if (path == null)
+            return null;
+        session = new FFmpegSession(new String[] {
+                "-v", "info",
+                "-nostats",
+                "-i", path,
+                "-map", "0:a:0",
+                "-vn", "-sn", "-dn",
+                "-filter:a", "ebur128=peak=true:framelog=verbose",
+                "-f", "null", "-"
+        });
+        FFmpegKitConfig.ffmpegExecute(session);
+        final String output = session.getOutput();
+        session = null;
+        if (output == null || Thread.currentThread().isInterrupted())
+            return null;
+
+        // Summary is logged last, after per frame measurements
+        final Matcher loudnessMatcher = PATTERN_LOUDNESS.matcher(output);
+        String loudness = null;
+        while (loudnessMatcher.find())
+            loudness = loudnessMatcher.group(1);
+        final Matcher peakMatcher = PATTERN_PEAK.matcher(output);
+        String peak = null;
+        while (peakMatcher.find())
+            peak = peakMatcher.group(1);
+        if (loudness == null || peak == null)
+            return null;
+        try {
+            return new float[] {
+                    Float.parseFloat(loudness),
+                    "-inf".equals(peak) ? Float.NEGATIVE_INFINITY : Float.parseFloat(peak)
+            };
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static File getCacheDir(final Context context) {
+        final File dir = new File(context.getCacheDir(), CACHE_DIR);
+        if (!dir.exists())
+            dir.mkdirs();
+        return dir;
+    }
+
+    private static float[] load(final File file) {
+        if (!file.exists())
+            return null;
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            final float[] result = new float[] { inputStream.readFloat(), inputStream.readFloat() };
+            file.setLastModified(System.currentTimeMillis());
+            return result;
+        } catch (Exception e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void save(final File file, final float[] result) {
+        try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(file))) {
+            outputStream.writeFloat(result[0]);
+            outputStream.writeFloat(result[1]);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        final File[] files = file.getParentFile().listFiles();
+        if (files != null && files.length > CACHE_FILES) {
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (int i = 0; i < files.length - CACHE_FILES; i++) {
+                files[i].delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+
+class MediaFingerprint {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CACHE_SIZE = 50;
+
+    private static final LinkedHashMap<String, String> cache = new LinkedHashMap<>();
+
+    // Same file opened using different providers (file, SAF, MediaStore, Nova) results in same fingerprint
+    static String get(final Context context, final Uri uri) {
+        if (uri == null || Utils.isSupportedNetworkUri(uri))
+            return null;
+
+        final String key = uri.toString();
+        synchronized (cache) {
+            if (cache.containsKey(key))
+                return cache.get(key);
+        }
+
+        final String fingerprint = compute(context, uri);
+        // Failure may be temporary (provider not ready), try again next time
+        if (fingerprint == null)
+            return null;
+
+        synchronized (cache) {
+            cache.put(key, fingerprint);
+            while (cache.size() > CACHE_SIZE)
+                cache.remove(cache.keySet().iterator().next());
+        }
+        return fingerprint;
+    }
+
+    private static String compute(final Context context, final Uri uri) {
+        final String scheme = uri.getScheme();
+        try {
+            if (ContentResolver.SCHEME_CONTENT.equals(scheme)) {
+                try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+                     FileInputStream fileInputStream = new FileInputStream(pfd.getFileDescriptor())) {
+                    return compute(fileInputStream.getChannel());
+                }
+            } else {
+                final String path = ContentResolver.SCHEME_FILE.equals(scheme) ? uri.getPath() : uri.toString();
+                try (FileInputStream fileInputStream = new FileInputStream(new File(path))) {
+                    return compute(fileInputStream.getChannel());
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private static String compute(final FileChannel channel) throws Exception {
+        final long size = channel.size();
+        if (size <= 0)
+            return null;
+
+        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+        read(channel, buffer, 0);
+        digest.update(buffer);
+        if (size > CHUNK_SIZE) {
+            read(channel, buffer, Math.max(CHUNK_SIZE, size - CHUNK_SIZE));
+            digest.update(buffer);
+        }
+
+        final StringBuilder stringBuilder = new StringBuilder(Long.toHexString(size)).append('-');
+        for (byte b : digest.digest()) {
+            stringBuilder.append(String.format("%02x", b));
+        }
+        return stringBuilder.toString();
+    }
+
+    private static void read(final FileChannel channel, final ByteBuffer buffer, long position) throws Exception {
+        buffer.clear();
+        int read;
+        while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0) {
+            position += read;
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,254 @@
+package com.brouken.player;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+
+import com.arthenica.ffmpegkit.Chapter;
+import com.arthenica.ffmpegkit.MediaInformation;
+import com.arthenica.ffmpegkit.StreamInformation;
+import com.google.android.exoplayer2.Format;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class MediaIndex {
+
+    private static final String FILE_NAME = "index";
+    private static final int MAX_ENTRIES = 5000;
+
+    static final int JOB_ID = 1;
+
+    static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String name;
+        long size = -1;
+        long lastModified = -1;
+        long duration = -1;
+
+        // Set once ffprobe results (frame rate, chapters) are stored
+        boolean probed;
+        float frameRate = Format.NO_VALUE;
+        long[] chapters = new long[0];
+
+        String subtitle;
+        String next;
+
+        boolean isCurrent(final long size, final long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+    private static LinkedHashMap<String, Entry> entries;
+
+    // SAF uris of the same file differ between single documents and documents from tree (scope)
+    static String key(final Uri uri) {
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()) &&
+                "com.android.externalstorage.documents".equals(uri.getHost())) {
+            final String trailPath = SubtitleUtils.getTrailPathFromUri(uri);
+            if (trailPath != null && trailPath.length() > 0)
+                return uri.getHost() + ":" + trailPath;
+        }
+        return uri.toString();
+    }
+
+    static synchronized Entry get(final Context context, final Uri uri) {
+        if (uri == null)
+            return null;
+        load(context);
+        return entries.get(key(uri));
+    }
+
+    // Entry only if the file at uri wasn't replaced since it was indexed, stale entry is dropped
+    static Entry getCurrent(final Context context, final Uri uri) {
+        final Entry entry = get(context, uri);
+        if (entry == null)
+            return null;
+        final long[] stat = stat(context, uri);
+        if (entry.isCurrent(stat[0], stat[1]))
+            return entry;
+        synchronized (MediaIndex.class) {
+            if (entries.get(key(uri)) == entry)
+                entries.remove(key(uri));
+        }
+        return null;
+    }
+
+    static synchronized void put(final Context context, final Uri uri, final Entry entry) {
+        load(context);
+        final String key = key(uri);
+        entries.remove(key);
+        entries.put(key, entry);
+        while (entries.size() > MAX_ENTRIES)
+            entries.remove(entries.keySet().iterator().next());
+    }
+
+    static synchronized void update(final Context context, final Uri uri, final MediaInformation mediaInformation) {
+        Entry entry = get(context, uri);
+        if (entry == null) {
+            entry = new Entry();
+            entry.name = Utils.getFileName(context, uri);
+            final long[] stat = stat(context, uri);
+            entry.size = stat[0];
+            entry.lastModified = stat[1];
+        }
+        fill(entry, mediaInformation);
+        put(context, uri, entry);
+        save(context);
+    }
+
+    static String getFileName(final Context context, final Uri uri) {
+        final Entry entry = get(context, uri);
+        if (entry != null && entry.name != null)
+            return entry.name;
+        return Utils.getFileName(context, uri);
+    }
+
+    static void fill(final Entry entry, final MediaInformation mediaInformation) {
+        entry.frameRate = getFrameRate(mediaInformation);
+        entry.chapters = getChapterStarts(mediaInformation);
+        if (entry.duration <= 0) {
+            try {
+                entry.duration = (long) (Double.parseDouble(mediaInformation.getDuration()) * 1000);
+            } catch (Exception ignored) {}
+        }
+        entry.probed = true;
+    }
+
+    static float getFrameRate(final MediaInformation mediaInformation) {
+        final List<StreamInformation> streamInformations = mediaInformation.getStreams();
+        for (StreamInformation streamInformation : streamInformations) {
+            if (streamInformation.getType().equals("video")) {
+                final String averageFrameRate = streamInformation.getAverageFrameRate();
+                if (averageFrameRate.contains("/")) {
+                    final String[] vals = averageFrameRate.split("/");
+                    return Float.parseFloat(vals[0]) / Float.parseFloat(vals[1]);
+                }
+            }
+        }
+        return Format.NO_VALUE;
+    }
+
+    static long[] getChapterStarts(final MediaInformation mediaInformation) {
+        final List<Chapter> chapters = mediaInformation.getChapters();
+        final long[] starts = new long[chapters.size()];
+        for (int i = 0; i < chapters.size(); i++) {
+            final long start = chapters.get(i).getStart();
+            if (start > 0) {
+                starts[i] = start / 1_000_000;
+            }
+        }
+        return starts;
+    }
+
+    // Size and last modified time in the same units the index job stores them, -1 if unknown
+    private static long[] stat(final Context context, final Uri uri) {
+        final long[] stat = new long[] { -1, -1 };
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            final File file = new File(uri.getSchemeSpecificPart());
+            if (file.exists()) {
+                stat[0] = file.length();
+                stat[1] = file.lastModified();
+            }
+            return stat;
+        }
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()))
+            return stat;
+        final boolean mediaStore = MediaStore.AUTHORITY.equals(uri.getAuthority());
+        final String lastModifiedColumn = mediaStore ? MediaStore.MediaColumns.DATE_MODIFIED : DocumentsContract.Document.COLUMN_LAST_MODIFIED;
+        try (Cursor cursor = context.getContentResolver().query(uri, new String[] { OpenableColumns.SIZE, lastModifiedColumn }, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                if (!cursor.isNull(0))
+                    stat[0] = cursor.getLong(0);
+                if (!cursor.isNull(1))
+                    stat[1] = mediaStore ? cursor.getLong(1) * 1000 : cursor.getLong(1);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return stat;
+    }
+
+    static synchronized void save(final Context context) {
+        if (entries == null)
+            return;
+        try {
+            FileOutputStream fos = context.openFileOutput(FILE_NAME, Context.MODE_PRIVATE);
+            ObjectOutputStream os = new ObjectOutputStream(fos);
+            os.writeObject(entries);
+            os.close();
+            fos.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void load(final Context context) {
+        if (entries != null)
+            return;
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            entries = new LinkedHashMap<>();
+            return;
+        }
+        try {
+            FileInputStream fis = context.openFileInput(FILE_NAME);
+            ObjectInputStream is = new ObjectInputStream(fis);
+            entries = (LinkedHashMap<String, Entry>) is.readObject();
+            is.close();
+            fis.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            entries = new LinkedHashMap<>();
+        }
+    }
+
+    static synchronized void clear(final Context context) {
+        entries = new LinkedHashMap<>();
+        context.deleteFile(FILE_NAME);
+    }
+
+    static void schedule(final Context context, final boolean enabled, final boolean isTvBox) {
+        final JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null)
+            return;
+
+        if (!enabled) {
+            jobScheduler.cancel(JOB_ID);
+            // Index file is gone after first clear
+            if (new File(context.getFilesDir(), FILE_NAME).exists())
+                new Thread(() -> clear(context)).start();
+            return;
+        }
+
+        for (JobInfo jobInfo : jobScheduler.getAllPendingJobs()) {
+            if (jobInfo.getId() == JOB_ID)
+                return;
+        }
+
+        final JobInfo.Builder builder = new JobInfo.Builder(JOB_ID, new ComponentName(context, MediaIndexJobService.class))
+                .setPeriodic(TimeUnit.HOURS.toMillis(12));
+        // TV boxes are always powered
+        if (isTvBox) {
+            builder.setRequiresDeviceIdle(true);
+        } else {
+            builder.setRequiresCharging(true);
+        }
+        jobScheduler.schedule(builder.build());
+    }
+}
@@ -0,0 +1,224 @@
+package com.brouken.player;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+
+import androidx.documentfile.provider.DocumentFile;
+
+import com.arthenica.ffmpegkit.MediaInformation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public class MediaIndexJobService extends JobService {
+
+    private volatile boolean stopped;
+    private Thread thread;
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        stopped = false;
+        thread = new Thread(() -> {
+            final Prefs prefs = new Prefs(this);
+            if (prefs.mediaIndex) {
+                try {
+                    indexMediaStore();
+                    if (prefs.scopeUri != null)
+                        indexScope(prefs.scopeUri);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                MediaIndex.save(this);
+            }
+            jobFinished(params, stopped);
+        });
+        thread.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        stopped = true;
+        return true;
+    }
+
+    private static class Item {
+        long id;
+        String displayName;
+        long size;
+        long lastModified;
+        long duration;
+        String data;
+    }
+
+    private void indexMediaStore() {
+        final String[] projection = new String[] {
+                MediaStore.Video.Media._ID,
+                MediaStore.Video.Media.DISPLAY_NAME,
+                MediaStore.Video.Media.SIZE,
+                MediaStore.Video.Media.DATE_MODIFIED,
+                MediaStore.Video.Media.DURATION,
+                MediaStore.Video.Media.BUCKET_ID,
+                MediaStore.Video.Media.DATA
+        };
+        final HashMap<String, List<Item>> buckets = new HashMap<>();
+        try (Cursor cursor = getContentResolver().query(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, projection, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst())
+                return;
+            do {
+                final Item item = new Item();
+                item.id = cursor.getLong(0);
+                item.displayName = cursor.getString(1);
+                if (item.displayName == null)
+                    continue;
+                item.size = cursor.getLong(2);
+                item.lastModified = cursor.getLong(3) * 1000;
+                item.duration = cursor.getLong(4);
+                item.data = cursor.getString(6);
+                String bucket = cursor.getString(5);
+                if (bucket == null)
+                    bucket = "";
+                List<Item> items = buckets.get(bucket);
+                if (items == null) {
+                    items = new ArrayList<>();
+                    buckets.put(bucket, items);
+                }
+                items.add(item);
+            } while (cursor.moveToNext());
+        }
+
+        // Legacy file access (TV boxes) opens videos using file uri
+        final boolean legacy = Build.VERSION.SDK_INT < 29;
+
+        for (List<Item> items : buckets.values()) {
+            Collections.sort(items, (a, b) -> a.displayName.compareToIgnoreCase(b.displayName));
+            for (int i = 0; i < items.size(); i++) {
+                if (stopped)
+                    return;
+                final Item item = items.get(i);
+                final Uri uri = ContentUris.withAppendedId(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, item.id);
+                final Item nextItem = i + 1 < items.size() ? items.get(i + 1) : null;
+
+                File file = null;
+                if (legacy && item.data != null) {
+                    file = new File(item.data);
+                    if (!file.canRead())
+                        file = null;
+                }
+
+                MediaIndex.Entry entry = MediaIndex.get(this, uri);
+                if (entry == null || !entry.isCurrent(item.size, item.lastModified)) {
+                    entry = new MediaIndex.Entry();
+                    entry.name = getBaseName(item.displayName);
+                    entry.size = item.size;
+                    entry.lastModified = item.lastModified;
+                    entry.duration = item.duration;
+                    if (file != null) {
+                        final DocumentFile subtitle = SubtitleUtils.findSubtitle(DocumentFile.fromFile(file), DocumentFile.fromFile(file.getParentFile()));
+                        if (subtitle != null)
+                            entry.subtitle = subtitle.getUri().toString();
+                    }
+                    probe(entry, uri);
+                }
+                if (nextItem != null)
+                    entry.next = ContentUris.withAppendedId(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, nextItem.id).toString();
+                MediaIndex.put(this, uri, entry);
+
+                if (file != null) {
+                    MediaIndex.Entry fileEntry = copy(entry);
+                    // File time has finer precision than MediaStore seconds
+                    fileEntry.lastModified = file.lastModified();
+                    fileEntry.next = null;
+                    if (nextItem != null && nextItem.data != null)
+                        fileEntry.next = Uri.fromFile(new File(nextItem.data)).toString();
+                    MediaIndex.put(this, Uri.fromFile(file), fileEntry);
+                }
+            }
+        }
+    }
+
+    private void indexScope(final Uri scopeUri) {
+        final DocumentFile tree = DocumentFile.fromTreeUri(this, scopeUri);
+        if (tree != null)
+            indexDirectory(tree);
+    }
+
+    private void indexDirectory(final DocumentFile dir) {
+        final DocumentFile[] files = dir.listFiles();
+        try {
+            Arrays.sort(files, (a, b) -> a.getName().compareToIgnoreCase(b.getName()));
+        } catch (NullPointerException e) {
+            return;
+        }
+
+        final List<DocumentFile> videos = new ArrayList<>();
+        for (DocumentFile file : files) {
+            if (stopped)
+                return;
+            if (file.isDirectory()) {
+                indexDirectory(file);
+            } else if (SubtitleUtils.isVideoFile(file)) {
+                videos.add(file);
+            }
+        }
+
+        for (int i = 0; i < videos.size(); i++) {
+            if (stopped)
+                return;
+            final DocumentFile video = videos.get(i);
+            final Uri uri = video.getUri();
+            final long size = video.length();
+            final long lastModified = video.lastModified();
+
+            MediaIndex.Entry entry = MediaIndex.get(this, uri);
+            if (entry == null || !entry.isCurrent(size, lastModified)) {
+                entry = new MediaIndex.Entry();
+                entry.name = getBaseName(video.getName());
+                entry.size = size;
+                entry.lastModified = lastModified;
+                final DocumentFile subtitle = SubtitleUtils.findSubtitle(video, dir);
+                if (subtitle != null)
+                    entry.subtitle = subtitle.getUri().toString();
+                probe(entry, uri);
+            }
+            entry.next = i + 1 < videos.size() ? videos.get(i + 1).getUri().toString() : null;
+            MediaIndex.put(this, uri, entry);
+        }
+        MediaIndex.save(this);
+    }
+
+    private void probe(final MediaIndex.Entry entry, final Uri uri) {
+        final MediaInformation mediaInformation = Utils.getMediaInformation(this, uri);
+        if (mediaInformation != null)
+            MediaIndex.fill(entry, mediaInformation);
+    }
+
+    private static MediaIndex.Entry copy(final MediaIndex.Entry entry) {
+        final MediaIndex.Entry copy = new MediaIndex.Entry();
+        copy.name = entry.name;
+        copy.size = entry.size;
+        copy.lastModified = entry.lastModified;
+        copy.duration = entry.duration;
+        copy.probed = entry.probed;
+        copy.frameRate = entry.frameRate;
+        copy.chapters = entry.chapters;
+        copy.subtitle = entry.subtitle;
+        copy.next = entry.next;
+        return copy;
+    }
+
+    private static String getBaseName(final String name) {
+        if (name.indexOf(".") > 0)
+            return name.substring(0, name.lastIndexOf("."));
+        return name;
+    }
+}
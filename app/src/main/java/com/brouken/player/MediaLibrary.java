@@ -0,0 +1,213 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+import android.util.LruCache;
+
+import androidx.documentfile.provider.DocumentFile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Browse tree (recent, continue watching, folders in scope) for MediaLibraryService and metadata for media sessions.
+ * Lists are served from memory and rebuilt in background, metadata is built once per item.
+ */
+class MediaLibrary {
+
+    static final String ROOT = "root";
+    static final String RECENT = "recent";
+    static final String CONTINUE = "continue";
+    static final String FOLDERS = "folders";
+    private static final String FOLDER_PREFIX = "folder:";
+
+    private static final int MAX_ITEMS = 50;
+    private static final int METADATA_CACHE_SIZE = 100;
+    // Fixed lists and recently browsed folders
+    private static final int CHILDREN_CACHE_SIZE = 20;
+    // Files watched almost to the end are not offered to continue
+    private static final float FINISHED = 0.95f;
+
+    private static final LruCache<String, List<MediaBrowserCompat.MediaItem>> children = new LruCache<>(CHILDREN_CACHE_SIZE);
+    private static final LruCache<String, MediaMetadataCompat> metadata = new LruCache<>(METADATA_CACHE_SIZE);
+
+    static synchronized List<MediaBrowserCompat.MediaItem> getCachedChildren(final String parentId) {
+        return children.get(parentId);
+    }
+
+    // Rebuilds list on calling (background) thread, true if it changed
+    static boolean refresh(final Context context, final String parentId) {
+        final List<MediaBrowserCompat.MediaItem> items = build(context, parentId);
+        if (items == null)
+            return false;
+        synchronized (MediaLibrary.class) {
+            final List<MediaBrowserCompat.MediaItem> cached = children.put(parentId, items);
+            return cached == null || !getSignature(cached).equals(getSignature(items));
+        }
+    }
+
+    static List<MediaBrowserCompat.MediaItem> search(final Context context, final String query) {
+        final String lowerQuery = query.toLowerCase(Locale.ROOT).trim();
+        final List<MediaBrowserCompat.MediaItem> results = new ArrayList<>();
+        final ArrayList<String> ids = new ArrayList<>();
+        final List<List<MediaBrowserCompat.MediaItem>> lists = new ArrayList<>();
+        lists.add(build(context, RECENT));
+        synchronized (MediaLibrary.class) {
+            lists.addAll(children.snapshot().values());
+        }
+        for (List<MediaBrowserCompat.MediaItem> items : lists) {
+            if (items == null)
+                continue;
+            for (MediaBrowserCompat.MediaItem item : items) {
+                final CharSequence title = item.getDescription().getTitle();
+                if (item.isPlayable() && title != null && !ids.contains(item.getMediaId())
+                        && title.toString().toLowerCase(Locale.ROOT).contains(lowerQuery)) {
+                    ids.add(item.getMediaId());
+                    results.add(item);
+                }
+            }
+        }
+        return results;
+    }
+
+    static MediaMetadataCompat getMetadata(final Context context, final Uri uri) {
+        final String key = MediaIndex.key(uri);
+        MediaMetadataCompat item = metadata.get(key);
+        if (item == null) {
+            final MediaMetadataCompat.Builder builder = new MediaMetadataCompat.Builder()
+                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, uri.toString());
+            final String title = MediaIndex.getFileName(context, uri);
+            if (title != null) {
+                builder.putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE, title);
+                builder.putString(MediaMetadataCompat.METADATA_KEY_TITLE, title);
+            }
+            final MediaIndex.Entry entry = MediaIndex.get(context, uri);
+            if (entry != null && entry.duration > 0)
+                builder.putLong(MediaMetadataCompat.METADATA_KEY_DURATION, entry.duration);
+            item = builder.build();
+            metadata.put(key, item);
+        }
+        return item;
+    }
+
+    // Adds artwork from cached seek previews to metadata, callback runs on main thread if there's any
+    static void loadArtwork(final Context context, final Uri uri, final Runnable onLoaded) {
+        final MediaMetadataCompat item = getMetadata(context, uri);
+        if (item.containsKey(MediaMetadataCompat.METADATA_KEY_ART))
+            return;
+        final Context applicationContext = context.getApplicationContext();
+        new Thread(() -> {
+            String key = MediaFingerprint.get(applicationContext, uri);
+            if (key == null)
+                key = Integer.toHexString(uri.toString().hashCode());
+            final Bitmap artwork = SeekPreview.getThumbnail(applicationContext, key);
+            if (artwork == null)
+                return;
+            metadata.put(MediaIndex.key(uri), new MediaMetadataCompat.Builder(item)
+                    .putBitmap(MediaMetadataCompat.METADATA_KEY_ART, artwork)
+                    .build());
+            new Handler(Looper.getMainLooper()).post(onLoaded);
+        }).start();
+    }
+
+    private static List<MediaBrowserCompat.MediaItem> build(final Context context, final String parentId) {
+        if (ROOT.equals(parentId)) {
+            final List<MediaBrowserCompat.MediaItem> items = new ArrayList<>();
+            items.add(buildBrowsable(CONTINUE, context.getString(R.string.library_continue)));
+            items.add(buildBrowsable(RECENT, context.getString(R.string.library_recent)));
+            if (Prefs.getScopeUri(context) != null)
+                items.add(buildBrowsable(FOLDERS, context.getString(R.string.library_folders)));
+            return items;
+        } else if (RECENT.equals(parentId) || CONTINUE.equals(parentId)) {
+            return buildRecent(context, CONTINUE.equals(parentId));
+        } else if (FOLDERS.equals(parentId)) {
+            final Uri scopeUri = Prefs.getScopeUri(context);
+            return scopeUri == null ? null : buildFolder(context, DocumentFile.fromTreeUri(context, scopeUri));
+        } else if (parentId.startsWith(FOLDER_PREFIX)) {
+            return buildFolder(context, DocumentFile.fromTreeUri(context, Uri.parse(parentId.substring(FOLDER_PREFIX.length()))));
+        }
+        return null;
+    }
+
+    private static List<MediaBrowserCompat.MediaItem> buildRecent(final Context context, final boolean unfinished) {
+        final LinkedHashMap positions = Prefs.readPositions(context);
+        if (positions == null)
+            return null;
+        final Object[] keys = positions.keySet().toArray();
+        final List<MediaBrowserCompat.MediaItem> items = new ArrayList<>();
+        for (int i = keys.length - 1; i >= 0 && items.size() < MAX_ITEMS; i--) {
+            final String key = (String) keys[i];
+            if (Prefs.isFingerprintKey(key))
+                continue;
+            final Uri uri = Uri.parse(key);
+            if (Utils.isSupportedNetworkUri(uri) || !Utils.fileExists(context, uri))
+                continue;
+            if (unfinished) {
+                final long position = (long) positions.get(key);
+                final long duration = getMetadata(context, uri).getLong(MediaMetadataCompat.METADATA_KEY_DURATION);
+                if (position <= 0 || (duration > 0 && position > duration * FINISHED))
+                    continue;
+            }
+            items.add(buildPlayable(context, uri));
+        }
+        return items;
+    }
+
+    private static List<MediaBrowserCompat.MediaItem> buildFolder(final Context context, final DocumentFile dir) {
+        if (dir == null)
+            return null;
+        final DocumentFile[] files = dir.listFiles();
+        try {
+            Arrays.sort(files, (a, b) -> a.getName().compareToIgnoreCase(b.getName()));
+        } catch (NullPointerException e) {
+            return null;
+        }
+        final List<MediaBrowserCompat.MediaItem> folders = new ArrayList<>();
+        final List<MediaBrowserCompat.MediaItem> videos = new ArrayList<>();
+        for (DocumentFile file : files) {
+            if (file.isDirectory()) {
+                folders.add(buildBrowsable(FOLDER_PREFIX + file.getUri(), file.getName()));
+            } else if (SubtitleUtils.isVideoFile(file)) {
+                videos.add(buildPlayable(context, file.getUri()));
+            }
+        }
+        folders.addAll(videos);
+        return folders;
+    }
+
+    private static MediaBrowserCompat.MediaItem buildBrowsable(final String mediaId, final String title) {
+        final MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                .setMediaId(mediaId)
+                .setTitle(title)
+                .build();
+        return new MediaBrowserCompat.MediaItem(description, MediaBrowserCompat.MediaItem.FLAG_BROWSABLE);
+    }
+
+    // Without artwork, bitmaps for whole list wouldn't fit into a binder transaction
+    private static MediaBrowserCompat.MediaItem buildPlayable(final Context context, final Uri uri) {
+        final MediaMetadataCompat item = getMetadata(context, uri);
+        final MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                .setMediaId(uri.toString())
+                .setMediaUri(uri)
+                .setTitle(item.getString(MediaMetadataCompat.METADATA_KEY_TITLE))
+                .build();
+        return new MediaBrowserCompat.MediaItem(description, MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
+    }
+
+    private static List<String> getSignature(final List<MediaBrowserCompat.MediaItem> items) {
+        final List<String> signature = new ArrayList<>();
+        for (MediaBrowserCompat.MediaItem item : items) {
+            signature.add(item.getMediaId() + "\n" + item.getDescription().getTitle());
+        }
+        return signature;
+    }
+}
@@ -0,0 +1,181 @@
+package com.brouken.player;
+
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media.MediaBrowserServiceCompat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Browse and voice search for system clients (launchers, assistant, car), playback itself is started in PlayerActivity
+public class MediaLibraryService extends MediaBrowserServiceCompat {
+
+    private static final long EXECUTOR_KEEP_ALIVE = 10;
+
+    private static MediaLibraryService instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Lists are built one at a time (they read the same files)
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, EXECUTOR_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    // Queued refreshes by parent id with results waiting for them, repeated requests join the queued one
+    private final HashMap<String, List<Result<List<MediaBrowserCompat.MediaItem>>>> pending = new HashMap<>();
+    private MediaSessionCompat mediaSession;
+
+    // Played positions changed (recent and continue watching lists)
+    static void notifyPositionsChanged() {
+        final MediaLibraryService service = instance;
+        if (service != null) {
+            service.refresh(MediaLibrary.RECENT, null);
+            service.refresh(MediaLibrary.CONTINUE, null);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mediaSession = new MediaSessionCompat(this, "library");
+        mediaSession.setCallback(new SessionCallback());
+        setSessionToken(mediaSession.getSessionToken());
+        executor.allowCoreThreadTimeOut(true);
+        instance = this;
+    }
+
+    @Override
+    public void onDestroy() {
+        instance = null;
+        executor.shutdown();
+        mediaSession.release();
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public BrowserRoot onGetRoot(@NonNull String clientPackageName, int clientUid, @Nullable Bundle rootHints) {
+        // Watch history is not for any app to read
+        if (clientUid != Process.myUid() && clientUid != Process.SYSTEM_UID && !isSystemApp(clientPackageName)) {
+            return null;
+        }
+        return new BrowserRoot(MediaLibrary.ROOT, null);
+    }
+
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        final List<MediaBrowserCompat.MediaItem> cached = MediaLibrary.getCachedChildren(parentId);
+        if (cached != null) {
+            result.sendResult(cached);
+            refresh(parentId, null);
+            return;
+        }
+        result.detach();
+        refresh(parentId, result);
+    }
+
+    @Override
+    public void onSearch(@NonNull String query, @Nullable Bundle extras, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        result.detach();
+        execute(() -> {
+            final List<MediaBrowserCompat.MediaItem> items = MediaLibrary.search(this, query);
+            handler.post(() -> result.sendResult(items));
+        });
+    }
+
+    private void refresh(final String parentId, @Nullable final Result<List<MediaBrowserCompat.MediaItem>> result) {
+        synchronized (pending) {
+            List<Result<List<MediaBrowserCompat.MediaItem>>> results = pending.get(parentId);
+            if (results == null) {
+                results = new ArrayList<>();
+                pending.put(parentId, results);
+                execute(() -> {
+                    // Requests made from now on need another refresh
+                    final List<Result<List<MediaBrowserCompat.MediaItem>>> waiting;
+                    synchronized (pending) {
+                        waiting = pending.remove(parentId);
+                    }
+                    final boolean changed = MediaLibrary.refresh(this, parentId);
+                    final List<MediaBrowserCompat.MediaItem> items = MediaLibrary.getCachedChildren(parentId);
+                    handler.post(() -> {
+                        for (Result<List<MediaBrowserCompat.MediaItem>> waitingResult : waiting) {
+                            waitingResult.sendResult(items);
+                        }
+                        if (changed) {
+                            notifyChildrenChanged(parentId);
+                        }
+                    });
+                });
+            }
+            if (result != null) {
+                results.add(result);
+            }
+        }
+    }
+
+    private void execute(final Runnable runnable) {
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            // Service destroyed
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isSystemApp(final String packageName) {
+        try {
+            final ApplicationInfo applicationInfo = getPackageManager().getApplicationInfo(packageName, 0);
+            return (applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void play(final Uri uri) {
+        final Intent intent = new Intent(this, PlayerActivity.class);
+        if (uri != null) {
+            intent.setAction(Intent.ACTION_VIEW);
+            intent.setData(uri);
+        }
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        startActivity(intent);
+    }
+
+    private class SessionCallback extends MediaSessionCompat.Callback {
+        @Override
+        public void onPlay() {
+            // Continue last played file
+            play(null);
+        }
+
+        @Override
+        public void onPlayFromMediaId(String mediaId, Bundle extras) {
+            play(Uri.parse(mediaId));
+        }
+
+        @Override
+        public void onPlayFromSearch(String query, Bundle extras) {
+            if (query == null || query.isEmpty()) {
+                play(null);
+                return;
+            }
+            execute(() -> {
+                final List<MediaBrowserCompat.MediaItem> items = MediaLibrary.search(MediaLibraryService.this, query);
+                if (!items.isEmpty()) {
+                    handler.post(() -> play(Uri.parse(items.get(0).getMediaId())));
+                }
+            });
+        }
+    }
+}
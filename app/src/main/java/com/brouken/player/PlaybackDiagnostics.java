@@ -0,0 +1,350 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import com.google.android.exoplayer2.decoder.DecoderReuseEvaluation;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+class PlaybackDiagnostics implements AnalyticsListener, ExoPlayer.AudioOffloadListener {
+
+    private static final String LOG_DIR = "diagnostics";
+    private static final String LOG_FILE = "playback.log";
+    private static final long LOG_MAX_SIZE = 512 * 1024;
+    private static final int LOG_FILES = 3;
+
+    private static final long UPDATE_INTERVAL = 1000;
+    private static final long FLUSH_INTERVAL = 10_000;
+    private static final long WRITE_KEEP_ALIVE = 10;
+
+    // Log files are appended in order on one thread (shared with session reports)
+    static final ThreadPoolExecutor writeExecutor = new ThreadPoolExecutor(1, 1, WRITE_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        writeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Context context;
+    private final ExoPlayer player;
+    private final CustomStyledPlayerView playerView;
+    private final boolean overlay;
+    private final boolean log;
+
+    private final long startTime = SystemClock.elapsedRealtime();
+    long timeToFirstFrame = C.TIME_UNSET;
+
+    String videoDecoder;
+    long videoDecoderInitMs;
+    String audioDecoder;
+    Format videoFormat;
+
+    long droppedFrames;
+    int droppedFramesWindow;
+    private DecoderCounters lastCounters;
+    private int lastDroppedBuffers;
+    long frameProcessingOffsetUs;
+    int frameProcessingOffsetCount;
+    long bitrateEstimate;
+
+    private boolean wasReady;
+    private boolean seeking;
+    private long bufferingStart = C.TIME_UNSET;
+    int rebufferCount;
+    long rebufferDuration;
+
+    private long seekStart = C.TIME_UNSET;
+    long seekLatency = C.TIME_UNSET;
+
+    int errorCount;
+
+    private boolean offloadScheduling;
+    private boolean sleepingForOffload;
+    private long sleepStart = C.TIME_UNSET;
+    int offloadWakeups;
+    long offloadSleepDuration;
+
+    private final List<String> pendingLines = new ArrayList<>();
+    private long lastFlush = SystemClock.elapsedRealtime();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update();
+            playerView.postDelayed(this, UPDATE_INTERVAL);
+        }
+    };
+
+    PlaybackDiagnostics(final Context context, final ExoPlayer player, final CustomStyledPlayerView playerView, final boolean overlay, final boolean log) {
+        this.context = context.getApplicationContext();
+        this.player = player;
+        this.playerView = playerView;
+        this.overlay = overlay;
+        this.log = log;
+        log("start " + Build.MANUFACTURER + " " + Build.MODEL + " " + Build.FINGERPRINT);
+        playerView.postDelayed(updateRunnable, UPDATE_INTERVAL);
+    }
+
+    void release() {
+        playerView.removeCallbacks(updateRunnable);
+        if (overlay)
+            playerView.setStatsText(null);
+        log("end " + getSummary().replace('\n', ' '));
+        flush();
+    }
+
+    private void update() {
+        updateDroppedFramesWindow();
+        if (overlay)
+            playerView.setStatsText(getSummary());
+        if (SystemClock.elapsedRealtime() - lastFlush > FLUSH_INTERVAL) {
+            log("stats " + getSummary().replace('\n', ' '));
+            flush();
+        }
+    }
+
+    // Dropped frames are reported in batches, so rate is taken from live decoder counters
+    private void updateDroppedFramesWindow() {
+        final DecoderCounters counters = player.getVideoDecoderCounters();
+        if (counters == null) {
+            droppedFramesWindow = 0;
+            lastCounters = null;
+            return;
+        }
+        counters.ensureUpdated();
+        // New counters after renderer is enabled again
+        if (counters != lastCounters) {
+            lastCounters = counters;
+            lastDroppedBuffers = 0;
+        }
+        droppedFramesWindow = Math.max(0, counters.droppedBufferCount - lastDroppedBuffers);
+        lastDroppedBuffers = counters.droppedBufferCount;
+    }
+
+    String getSummary() {
+        final StringBuilder stringBuilder = new StringBuilder();
+        if (videoFormat != null) {
+            stringBuilder.append("Video: ").append(videoFormat.width).append("x").append(videoFormat.height);
+            if (videoFormat.frameRate != Format.NO_VALUE)
+                stringBuilder.append(String.format(Locale.US, " @%.3f", videoFormat.frameRate));
+            if (videoFormat.sampleMimeType != null)
+                stringBuilder.append(" ").append(videoFormat.sampleMimeType);
+            if (videoFormat.bitrate != Format.NO_VALUE)
+                stringBuilder.append(String.format(Locale.US, " %.1f Mbps", videoFormat.bitrate / 1_000_000f));
+            stringBuilder.append("\n");
+        }
+        if (videoDecoder != null)
+            stringBuilder.append("Video decoder: ").append(videoDecoder).append(" (").append(videoDecoderInitMs).append(" ms)\n");
+        if (audioDecoder != null)
+            stringBuilder.append("Audio decoder: ").append(audioDecoder).append("\n");
+        stringBuilder.append("First frame: ").append(formatTime(timeToFirstFrame)).append("\n");
+        stringBuilder.append("Dropped frames: ").append(droppedFrames).append(" (").append(droppedFramesWindow).append("/s)");
+        if (frameProcessingOffsetCount > 0)
+            stringBuilder.append(String.format(Locale.US, ", offset %.1f ms", frameProcessingOffsetUs / (float) frameProcessingOffsetCount / 1000f));
+        stringBuilder.append("\n");
+        stringBuilder.append(String.format(Locale.US, "Buffer: %.1f s", player.getTotalBufferedDuration() / 1000f));
+        stringBuilder.append(", rebuffers: ").append(rebufferCount).append(" (").append(rebufferDuration).append(" ms)\n");
+        if (bitrateEstimate > 0)
+            stringBuilder.append(String.format(Locale.US, "Bandwidth: %.1f Mbps\n", bitrateEstimate / 1_000_000f));
+        final long storageThroughput = FileChannelDataSource.getThroughput();
+        if (storageThroughput > 0)
+            stringBuilder.append(String.format(Locale.US, "Storage: %.1f MB/s\n", storageThroughput / 1_000_000f));
+        stringBuilder.append("Seek: ").append(formatTime(seekLatency));
+        if (PlayerActivity.seekScheduler != null)
+            stringBuilder.append(" (coalesced ").append(PlayerActivity.seekScheduler.getCoalescedCount()).append(")");
+        if (offloadScheduling) {
+            long sleepDuration = offloadSleepDuration;
+            if (sleepStart != C.TIME_UNSET)
+                sleepDuration += SystemClock.elapsedRealtime() - sleepStart;
+            stringBuilder.append("\nOffload: ").append(sleepingForOffload ? "sleeping" : "awake")
+                    .append(", wakeups: ").append(offloadWakeups)
+                    .append(", slept: ").append(sleepDuration / 1000).append(" s");
+        }
+        return stringBuilder.toString();
+    }
+
+    private static String formatTime(long time) {
+        return time == C.TIME_UNSET ? "-" : time + " ms";
+    }
+
+    @Override
+    public void onRenderedFirstFrame(@NonNull EventTime eventTime, @NonNull Object output, long renderTimeMs) {
+        final long now = SystemClock.elapsedRealtime();
+        if (timeToFirstFrame == C.TIME_UNSET) {
+            timeToFirstFrame = now - startTime;
+            log("first_frame " + timeToFirstFrame);
+        }
+        if (seekStart != C.TIME_UNSET) {
+            seekLatency = now - seekStart;
+            seekStart = C.TIME_UNSET;
+            log("seek " + seekLatency);
+        }
+    }
+
+    @Override
+    public void onPositionDiscontinuity(@NonNull EventTime eventTime, @NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, int reason) {
+        if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+            seeking = true;
+            seekStart = SystemClock.elapsedRealtime();
+        }
+    }
+
+    @Override
+    public void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+        final long now = SystemClock.elapsedRealtime();
+        if (state == Player.STATE_BUFFERING) {
+            if (wasReady && !seeking) {
+                bufferingStart = now;
+                rebufferCount++;
+                log("rebuffer_start " + eventTime.currentPlaybackPositionMs);
+            }
+        } else {
+            if (state == Player.STATE_READY)
+                wasReady = true;
+            if (bufferingStart != C.TIME_UNSET) {
+                final long duration = now - bufferingStart;
+                rebufferDuration += duration;
+                bufferingStart = C.TIME_UNSET;
+                log("rebuffer_end " + duration);
+            }
+            seeking = false;
+        }
+    }
+
+    @Override
+    public void onDroppedVideoFrames(@NonNull EventTime eventTime, int droppedFrames, long elapsedMs) {
+        this.droppedFrames += droppedFrames;
+        log("dropped " + droppedFrames + " " + elapsedMs);
+    }
+
+    @Override
+    public void onVideoFrameProcessingOffset(@NonNull EventTime eventTime, long totalProcessingOffsetUs, int frameCount) {
+        frameProcessingOffsetUs += totalProcessingOffsetUs;
+        frameProcessingOffsetCount += frameCount;
+    }
+
+    @Override
+    public void onVideoDecoderInitialized(@NonNull EventTime eventTime, @NonNull String decoderName, long initializedTimestampMs, long initializationDurationMs) {
+        videoDecoder = decoderName;
+        videoDecoderInitMs = initializationDurationMs;
+        log("video_decoder " + decoderName + " " + initializationDurationMs);
+    }
+
+    @Override
+    public void onAudioDecoderInitialized(@NonNull EventTime eventTime, @NonNull String decoderName, long initializedTimestampMs, long initializationDurationMs) {
+        audioDecoder = decoderName;
+        log("audio_decoder " + decoderName + " " + initializationDurationMs);
+    }
+
+    @Override
+    public void onVideoInputFormatChanged(@NonNull EventTime eventTime, @NonNull Format format, DecoderReuseEvaluation decoderReuseEvaluation) {
+        videoFormat = format;
+        log("video_format " + Format.toLogString(format));
+    }
+
+    @Override
+    public void onBandwidthEstimate(@NonNull EventTime eventTime, int totalLoadTimeMs, long totalBytesLoaded, long bitrateEstimate) {
+        this.bitrateEstimate = bitrateEstimate;
+    }
+
+    @Override
+    public void onExperimentalOffloadSchedulingEnabledChanged(boolean offloadSchedulingEnabled) {
+        offloadScheduling = offloadSchedulingEnabled;
+        log("offload_scheduling " + offloadSchedulingEnabled);
+    }
+
+    @Override
+    public void onExperimentalSleepingForOffloadChanged(boolean sleepingForOffload) {
+        if (sleepingForOffload == this.sleepingForOffload)
+            return;
+        this.sleepingForOffload = sleepingForOffload;
+        final long now = SystemClock.elapsedRealtime();
+        if (sleepingForOffload) {
+            sleepStart = now;
+        } else {
+            offloadWakeups++;
+            if (sleepStart != C.TIME_UNSET) {
+                offloadSleepDuration += now - sleepStart;
+                sleepStart = C.TIME_UNSET;
+            }
+        }
+    }
+
+    @Override
+    public void onPlayerError(@NonNull EventTime eventTime, @NonNull PlaybackException error) {
+        errorCount++;
+        log("error " + error.getErrorCodeName() + " " + error.getMessage());
+        flush();
+    }
+
+    private void log(final String line) {
+        if (!log)
+            return;
+        synchronized (pendingLines) {
+            pendingLines.add(dateFormat.format(new Date()) + " " + line);
+        }
+    }
+
+    private void flush() {
+        lastFlush = SystemClock.elapsedRealtime();
+        if (!log)
+            return;
+        final List<String> lines;
+        synchronized (pendingLines) {
+            if (pendingLines.isEmpty())
+                return;
+            lines = new ArrayList<>(pendingLines);
+            pendingLines.clear();
+        }
+        writeExecutor.execute(() -> write(context, lines));
+    }
+
+    static File getLogDir(final Context context) {
+        return new File(context.getExternalFilesDir(null), LOG_DIR);
+    }
+
+    private static void write(final Context context, final List<String> lines) {
+        try {
+            final File dir = getLogDir(context);
+            if (!dir.exists())
+                dir.mkdirs();
+            final File file = new File(dir, LOG_FILE);
+            if (file.length() > LOG_MAX_SIZE) {
+                for (int i = LOG_FILES - 1; i > 0; i--) {
+                    final File older = new File(dir, LOG_FILE + "." + i);
+                    final File newer = i == 1 ? file : new File(dir, LOG_FILE + "." + (i - 1));
+                    if (newer.exists())
+                        newer.renameTo(older);
+                }
+            }
+            final FileWriter fileWriter = new FileWriter(file, true);
+            for (String line : lines) {
+                fileWriter.write(line);
+                fileWriter.write('\n');
+            }
+            fileWriter.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.brouken.player;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.IBinder;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.ui.PlayerNotificationManager;
+
+// Keeps process in foreground (with media notification) while PlayerActivity plays audio in background
+public class PlaybackService extends Service {
+
+    private static final int NOTIFICATION_ID = 1;
+    private static final String CHANNEL_ID = "playback";
+
+    private static MediaSessionCompat.Token sessionToken;
+    // Called when playback is stopped from notification (or task removed) and player should be released
+    private static Runnable releaseCallback;
+
+    private PlayerNotificationManager playerNotificationManager;
+    private boolean foreground;
+
+    static void start(final Context context, final MediaSessionCompat.Token token, final Runnable onRelease) {
+        sessionToken = token;
+        releaseCallback = onRelease;
+        ContextCompat.startForegroundService(context, new Intent(context, PlaybackService.class));
+    }
+
+    static void stop(final Context context) {
+        releaseCallback = null;
+        context.stopService(new Intent(context, PlaybackService.class));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (PlayerActivity.player == null) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        if (playerNotificationManager == null) {
+            playerNotificationManager = new PlayerNotificationManager.Builder(this, NOTIFICATION_ID, CHANNEL_ID)
+                    .setChannelNameResourceId(R.string.notification_channel_playback)
+                    .setMediaDescriptionAdapter(new DescriptionAdapter())
+                    .setNotificationListener(new PlayerNotificationManager.NotificationListener() {
+                        @Override
+                        public void onNotificationPosted(int notificationId, @NonNull Notification notification, boolean ongoing) {
+                            // Service started using startForegroundService() must always call startForeground()
+                            if (ongoing || !foreground) {
+                                startForeground(notificationId, notification);
+                                foreground = true;
+                            }
+                            if (!ongoing) {
+                                stopForeground(false);
+                            }
+                        }
+
+                        @Override
+                        public void onNotificationCancelled(int notificationId, boolean dismissedByUser) {
+                            release();
+                        }
+                    })
+                    .build();
+            playerNotificationManager.setUseNextAction(false);
+            playerNotificationManager.setUsePreviousAction(false);
+            playerNotificationManager.setUseStopAction(true);
+        }
+        playerNotificationManager.setMediaSessionToken(sessionToken);
+        playerNotificationManager.setPlayer(PlayerActivity.player);
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onTaskRemoved(Intent rootIntent) {
+        release();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (playerNotificationManager != null) {
+            playerNotificationManager.setPlayer(null);
+            playerNotificationManager = null;
+        }
+        sessionToken = null;
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void release() {
+        final Runnable callback = releaseCallback;
+        releaseCallback = null;
+        if (callback != null) {
+            callback.run();
+        }
+        stopForeground(true);
+        stopSelf();
+    }
+
+    private class DescriptionAdapter implements PlayerNotificationManager.MediaDescriptionAdapter {
+
+        @NonNull
+        @Override
+        public CharSequence getCurrentContentTitle(@NonNull Player player) {
+            final MediaItem mediaItem = player.getCurrentMediaItem();
+            if (mediaItem != null && mediaItem.localConfiguration != null) {
+                final Uri uri = mediaItem.localConfiguration.uri;
+                final String title = MediaLibrary.getMetadata(PlaybackService.this, uri).getString(MediaMetadataCompat.METADATA_KEY_TITLE);
+                if (title != null) {
+                    return title;
+                }
+            }
+            return getString(R.string.app_name);
+        }
+
+        @Nullable
+        @Override
+        public PendingIntent createCurrentContentIntent(@NonNull Player player) {
+            final Intent intent = new Intent(PlaybackService.this, PlayerActivity.class);
+            return PendingIntent.getActivity(PlaybackService.this, 0, intent, PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+
+        @Nullable
+        @Override
+        public CharSequence getCurrentContentText(@NonNull Player player) {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Bitmap getCurrentLargeIcon(@NonNull Player player, @NonNull PlayerNotificationManager.BitmapCallback callback) {
+            final MediaItem mediaItem = player.getCurrentMediaItem();
+            if (mediaItem != null && mediaItem.localConfiguration != null) {
+                return MediaLibrary.getMetadata(PlaybackService.this, mediaItem.localConfiguration.uri).getBitmap(MediaMetadataCompat.METADATA_KEY_ART);
+            }
+            return null;
+        }
+    }
+}
@@ -19,6 +19,7 @@ import android.content.IntentFilter;
 import android.content.UriPermission;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Typeface;
 import android.graphics.drawable.Icon;
@@ -29,13 +30,14 @@ import android.media.audiofx.LoudnessEnhancer;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
 import android.provider.Settings;
-import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.text.TextUtils;
-import android.util.Base64;
 import android.util.DisplayMetrics;
 import android.util.Rational;
 import android.util.TypedValue;
@@ -44,8 +46,10 @@ import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.SurfaceView;
+import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.WindowInsets;
 import android.view.WindowInsetsController;
@@ -53,6 +57,7 @@ import android.view.accessibility.CaptioningManager;
 import android.widget.FrameLayout;
 import android.widget.HorizontalScrollView;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -69,18 +74,20 @@ import com.brouken.player.dtpv.youtube.YouTubeOverlay;
 import com.getkeepsafe.taptargetview.TapTarget;
 import com.getkeepsafe.taptargetview.TapTargetView;
 import com.google.android.exoplayer2.C;
-import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.ExoPlayerLibraryInfo;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.MediaItem;
 import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.RenderersFactory;
 import com.google.android.exoplayer2.SeekParameters;
 import com.google.android.exoplayer2.TracksInfo;
 import com.google.android.exoplayer2.audio.AudioAttributes;
 import com.google.android.exoplayer2.ext.mediasession.MediaSessionConnector;
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSource;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
 import com.google.android.exoplayer2.extractor.ts.DefaultTsPayloadReaderFactory;
 import com.google.android.exoplayer2.extractor.ts.TsExtractor;
@@ -95,8 +102,11 @@ import com.google.android.exoplayer2.ui.DefaultTimeBar;
 import com.google.android.exoplayer2.ui.StyledPlayerControlView;
 import com.google.android.exoplayer2.ui.SubtitleView;
 import com.google.android.exoplayer2.ui.TimeBar;
-import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.DefaultDataSource;
 import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.NetworkTypeObserver;
 import com.google.android.material.snackbar.Snackbar;
 
 import java.io.File;
@@ -105,7 +115,6 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
@@ -133,7 +142,11 @@ public class PlayerActivity extends Activity {
     public static boolean controllerVisibleFully;
     public static Snackbar snackbar;
     private ExoPlaybackException errorToShow;
+    private DecoderFallback decoderFallback;
+    private int decoderRetries;
     public static int boostLevel = 0;
+    // Loudness normalization (mB)
+    public static int loudnessGain = 0;
     private boolean isScaling = false;
     private boolean isScaleStarting = false;
     private float scaleFactor = 1.0f;
@@ -146,6 +159,7 @@ public class PlayerActivity extends Activity {
     private static final int REQUEST_SETTINGS = 100;
     private static final int REQUEST_SYSTEM_CAPTIONS = 200;
     public static final int CONTROLLER_TIMEOUT = 3500;
+    private static final int DECODER_RETRIES_MAX = 4;
     private static final String ACTION_MEDIA_CONTROL = "media_control";
     private static final String EXTRA_CONTROL_TYPE = "control_type";
     private static final int REQUEST_PLAY = 1;
@@ -155,6 +169,7 @@ public class PlayerActivity extends Activity {
 
     private CoordinatorLayout coordinatorLayout;
     private TextView titleView;
+    private ImageView seekPreviewView;
     private ImageButton buttonOpen;
     private ImageButton buttonPiP;
     private ImageButton buttonAspectRatio;
@@ -172,7 +187,6 @@ public class PlayerActivity extends Activity {
     private boolean isScrubbing;
     private boolean scrubbingNoticeable;
     private long scrubbingStart;
-    public boolean frameRendered;
     private boolean alive;
     public static boolean focusPlay = false;
     private Uri nextUri;
@@ -183,6 +197,32 @@ public class PlayerActivity extends Activity {
     public Thread chaptersThread;
     private long lastScrubbingPosition;
     public static long[] chapterStarts;
+    private SeekPreview seekPreview;
+    public static KeyframeIndex keyframeIndex;
+    private AudioTranscoder audioTranscoder;
+    private LoudnessAnalyzer loudnessAnalyzer;
+    private boolean audioOffload;
+    static SeekScheduler seekScheduler;
+    private PlaybackDiagnostics diagnostics;
+    SessionReport sessionReport;
+    private boolean seekPreviewShown;
+    private static final int SEEK_PREVIEW_DWELL = 400;
+    private long createStart;
+    private boolean firstDrawDone;
+    private Uri subtitleSearchUri;
+    private boolean warmHeld;
+    private boolean backgroundPlaying;
+    private DefaultBandwidthMeter bandwidthMeter;
+    private String bandwidthNetworkKey;
+    private boolean bandwidthSampled;
+
+    Runnable warmHoldExpired = this::releaseWarmHold;
+
+    Runnable seekPreviewDwell = () -> {
+        if (player != null && isScrubbing) {
+            seekScheduler.seekTo(lastScrubbingPosition, SeekParameters.CLOSEST_SYNC);
+        }
+    };
 
     public static boolean restoreControllerTimeout = false;
     public static boolean shortControllerTimeout = false;
@@ -197,9 +237,14 @@ public class PlayerActivity extends Activity {
     static final String API_SUBS_ENABLE = "subs.enable";
     static final String API_SUBS_NAME = "subs.name";
     static final String API_TITLE = "title";
+    static final String API_VIDEO_LIST = "video_list";
+    static final String API_VIDEO_LIST_NAME = "video_list.name";
+    static final String API_VIDEO_LIST_SUBTITLES = "video_list.subtitles";
+    static final String API_VIDEO_LIST_POSITION = "video_list.position";
     boolean apiAccess;
     String apiTitle;
     List<MediaItem.SubtitleConfiguration> apiSubs = new ArrayList<>();
+    ApiPlaylist apiPlaylist;
     boolean intentReturnResult;
     boolean playbackFinished;
 
@@ -216,10 +261,16 @@ public class PlayerActivity extends Activity {
     @RequiresApi(api = Build.VERSION_CODES.O)
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        // Rotate ASAP, before super/inflating to avoid glitches with activity launch animation
+        createStart = SystemClock.elapsedRealtime();
+        StartupTrace.begin("prefs");
         mPrefs = new Prefs(this);
+        StartupTrace.end("prefs");
+        // Rotate ASAP, before super/inflating to avoid glitches with activity launch animation
         Utils.setOrientation(this, mPrefs.orientation);
+        // Decoder queries run in parallel with inflating
+        DecoderInfoCache.warm(this);
 
+        StartupTrace.begin("inflate");
         super.onCreate(savedInstanceState);
         if (Build.VERSION.SDK_INT == 28 && Build.MANUFACTURER.equalsIgnoreCase("xiaomi") &&
                 (Build.DEVICE.equalsIgnoreCase("oneday") || Build.DEVICE.equalsIgnoreCase("once"))) {
@@ -227,6 +278,8 @@ public class PlayerActivity extends Activity {
         } else {
             setContentView(R.layout.activity_player);
         }
+        StartupTrace.end("inflate");
+        mPrefs.setFingerprintListener(this::onFingerprintPosition);
 
         if (Build.VERSION.SDK_INT >= 31) {
             Window window = getWindow();
@@ -240,12 +293,17 @@ public class PlayerActivity extends Activity {
             }
         }
 
+        StartupTrace.begin("tv_box");
         isTvBox = Utils.isTvBox(this);
+        StartupTrace.end("tv_box");
 
         if (isTvBox) {
             AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
         }
 
+        MediaIndex.schedule(this, mPrefs.mediaIndex, isTvBox);
+
+        StartupTrace.begin("intent");
         final Intent launchIntent = getIntent();
         final String action = launchIntent.getAction();
         final String type = launchIntent.getType();
@@ -270,7 +328,7 @@ public class PlayerActivity extends Activity {
                 Bundle bundle = launchIntent.getExtras();
                 if (bundle != null) {
                     apiAccess = bundle.containsKey(API_POSITION) || bundle.containsKey(API_RETURN_RESULT) || bundle.containsKey(API_TITLE)
-                            || bundle.containsKey(API_SUBS) || bundle.containsKey(API_SUBS_ENABLE);
+                            || bundle.containsKey(API_SUBS) || bundle.containsKey(API_SUBS_ENABLE) || bundle.containsKey(API_VIDEO_LIST);
                     if (apiAccess) {
                         mPrefs.setPersistent(false);
                     }
@@ -300,8 +358,18 @@ public class PlayerActivity extends Activity {
                     }
                 }
 
-                if (apiSubs.isEmpty()) {
-                    searchSubtitles();
+                if (bundle != null) {
+                    apiPlaylist = ApiPlaylist.fromBundle(bundle, uri);
+                    if (apiPlaylist != null) {
+                        apiPlaylist.setSubtitles(apiSubs);
+                        if (apiTitle == null) {
+                            apiTitle = apiPlaylist.getName();
+                        }
+                    }
+                }
+
+                if (apiSubs.isEmpty() && apiPlaylist == null) {
+                    startSubtitleSearch();
                 }
 
                 if (bundle != null) {
@@ -309,12 +377,16 @@ public class PlayerActivity extends Activity {
 
                     if (bundle.containsKey(API_POSITION)) {
                         mPrefs.updatePosition((long) bundle.getInt(API_POSITION));
+                    } else if (apiPlaylist != null) {
+                        mPrefs.updatePosition(apiPlaylist.getPosition());
                     }
                 }
             }
             focusPlay = true;
         }
+        StartupTrace.end("intent");
 
+        StartupTrace.begin("views");
         coordinatorLayout = findViewById(R.id.coordinatorLayout);
         mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         playerView = findViewById(R.id.video_view);
@@ -347,7 +419,6 @@ public class PlayerActivity extends Activity {
                 lastScrubbingPosition = position;
                 scrubbingNoticeable = false;
                 isScrubbing = true;
-                frameRendered = true;
                 playerView.setControllerShowTimeoutMs(-1);
                 scrubbingStart = player.getCurrentPosition();
                 player.setSeekParameters(SeekParameters.CLOSEST_SYNC);
@@ -369,6 +440,12 @@ public class PlayerActivity extends Activity {
             public void onScrubStop(TimeBar timeBar, long position, boolean canceled) {
                 playerView.setCustomErrorMessage(null);
                 isScrubbing = false;
+                if (seekPreviewShown) {
+                    hideSeekPreview();
+                    if (player != null) {
+                        seekScheduler.seekTo(position, SeekParameters.CLOSEST_SYNC);
+                    }
+                }
                 if (restorePlayState) {
                     restorePlayState = false;
                     playerView.setControllerShowTimeoutMs(PlayerActivity.CONTROLLER_TIMEOUT);
@@ -396,16 +473,14 @@ public class PlayerActivity extends Activity {
         if (Utils.isPiPSupported(this)) {
             // TODO: Android 12 improvements:
             // https://developer.android.com/about/versions/12/features/pip-improvements
+            // Actions are set after first draw (see onFirstDraw())
             mPictureInPictureParamsBuilder = new PictureInPictureParams.Builder();
-            boolean success = updatePictureInPictureActions(R.drawable.ic_play_arrow_24dp, R.string.exo_controls_play_description, CONTROL_TYPE_PLAY, REQUEST_PLAY);
 
-            if (success) {
-                buttonPiP = new ImageButton(this, null, 0, R.style.ExoStyledControls_Button_Bottom);
-                buttonPiP.setContentDescription(getString(R.string.button_pip));
-                buttonPiP.setImageResource(R.drawable.ic_picture_in_picture_alt_24dp);
+            buttonPiP = new ImageButton(this, null, 0, R.style.ExoStyledControls_Button_Bottom);
+            buttonPiP.setContentDescription(getString(R.string.button_pip));
+            buttonPiP.setImageResource(R.drawable.ic_picture_in_picture_alt_24dp);
 
-                buttonPiP.setOnClickListener(view -> enterPiP());
-            }
+            buttonPiP.setOnClickListener(view -> enterPiP());
         }
 
         buttonAspectRatio = new ImageButton(this, null, 0, R.style.ExoStyledControls_Button_Bottom);
@@ -453,6 +528,13 @@ public class PlayerActivity extends Activity {
         titleView.setTextDirection(View.TEXT_DIRECTION_LOCALE);
         centerView.addView(titleView);
 
+        seekPreviewView = new ImageView(this);
+        seekPreviewView.setBackgroundResource(R.color.ui_controls_background);
+        seekPreviewView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+        seekPreviewView.setPadding(Utils.dpToPx(2), Utils.dpToPx(2), Utils.dpToPx(2), Utils.dpToPx(2));
+        seekPreviewView.setVisibility(View.GONE);
+        centerView.addView(seekPreviewView);
+
         titleView.setOnLongClickListener(view -> {
             // Prevent FileUriExposedException
             if (mPrefs.mediaUri != null && ContentResolver.SCHEME_FILE.equals(mPrefs.mediaUri.getScheme())) {
@@ -630,25 +712,8 @@ public class PlayerActivity extends Activity {
                 }
 
                 if (controllerVisible && playerView.isControllerFullyVisible()) {
-                    if (mPrefs.firstRun) {
-                        TapTargetView.showFor(PlayerActivity.this,
-                                TapTarget.forView(buttonOpen, getString(R.string.onboarding_open_title), getString(R.string.onboarding_open_description))
-                                        .outerCircleColor(R.color.green)
-                                        .targetCircleColor(R.color.white)
-                                        .titleTextSize(22)
-                                        .titleTextColor(R.color.white)
-                                        .descriptionTextSize(14)
-                                        .cancelable(true),
-                                new TapTargetView.Listener() {
-                                    @Override
-                                    public void onTargetClick(TapTargetView view) {
-                                        super.onTargetClick(view);
-                                        buttonOpen.performClick();
-                                    }
-                                });
-                        // TODO: Explain gestures?
-                        //  "Use vertical and horizontal gestures to change brightness, volume and seek in video"
-                        mPrefs.markFirstRun();
+                    if (firstDrawDone) {
+                        showTutorial();
                     }
                     if (errorToShow != null) {
                         showError(errorToShow);
@@ -680,6 +745,129 @@ public class PlayerActivity extends Activity {
                         });
             }
         });
+
+        playerView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                if (firstDrawDone) {
+                    return;
+                }
+                firstDrawDone = true;
+                StartupTrace.put("first_draw", SystemClock.elapsedRealtime() - createStart);
+                // Listener can't be removed while drawing
+                final ViewTreeObserver.OnDrawListener listener = this;
+                playerView.post(() -> {
+                    playerView.getViewTreeObserver().removeOnDrawListener(listener);
+                    onFirstDraw();
+                });
+            }
+        });
+        StartupTrace.end("views");
+    }
+
+    // Work not needed for showing controls and preparing playback
+    private void onFirstDraw() {
+        StartupTrace.begin("deferred");
+        if (mPictureInPictureParamsBuilder != null && buttonPiP != null) {
+            final boolean playing = player != null && player.isPlaying();
+            final boolean success = playing ?
+                    updatePictureInPictureActions(R.drawable.ic_pause_24dp, R.string.exo_controls_pause_description, CONTROL_TYPE_PAUSE, REQUEST_PAUSE) :
+                    updatePictureInPictureActions(R.drawable.ic_play_arrow_24dp, R.string.exo_controls_play_description, CONTROL_TYPE_PLAY, REQUEST_PLAY);
+            if (!success) {
+                ((ViewGroup) buttonPiP.getParent()).removeView(buttonPiP);
+                buttonPiP = null;
+            }
+        }
+
+        if (controllerVisible && playerView.isControllerFullyVisible()) {
+            showTutorial();
+        }
+        StartupTrace.end("deferred");
+    }
+
+    // Scope search lists directories, so it runs in background while views are set up
+    private void startSubtitleSearch() {
+        if (Utils.isSupportedNetworkUri(mPrefs.mediaUri)) {
+            searchSubtitles();
+            return;
+        }
+        final Uri mediaUri = mPrefs.mediaUri;
+        subtitleSearchUri = mediaUri;
+        new Thread(() -> {
+            final Uri subtitleUri = findSubtitle(mediaUri);
+            playerView.post(() -> onSubtitleSearched(mediaUri, subtitleUri));
+        }).start();
+    }
+
+    // File without position of its own was played before under other uri, fingerprint got ready after prepare
+    private void onFingerprintPosition(final Uri uri, final long position) {
+        if (player == null || apiAccess || !videoLoading || !uri.equals(mPrefs.mediaUri) || player.getCurrentPosition() != 0)
+            return;
+        player.seekTo(position);
+    }
+
+    private void onSubtitleSearched(final Uri mediaUri, final Uri subtitleUri) {
+        // Other file opened in the meantime
+        if (!mediaUri.equals(subtitleSearchUri))
+            return;
+        subtitleSearchUri = null;
+        if (subtitleUri == null || !mediaUri.equals(mPrefs.mediaUri))
+            return;
+        handleSubtitles(subtitleUri);
+        // Found after prepare, attached the same way as picked subtitle
+        if (player != null && haveMedia) {
+            reinitializePlayer();
+        }
+    }
+
+    private void onLoudnessAnalyzed(final LoudnessAnalyzer analyzer, final int gain) {
+        if (player == null || analyzer != loudnessAnalyzer)
+            return;
+        setLoudnessGain(gain);
+    }
+
+    // LoudnessEnhancer only amplifies, louder files are attenuated by player volume
+    private void setLoudnessGain(final int gain) {
+        loudnessGain = gain;
+        player.setVolume(gain < 0 ? (float) Math.pow(10, gain / 2000.0) : 1f);
+        Utils.updateLoudnessEnhancer();
+    }
+
+    // Continue from current position in file with converted audio
+    private void onAudioTranscoded(final AudioTranscoder transcoder, final Uri uri) {
+        if (player == null || transcoder != audioTranscoder || !haveMedia)
+            return;
+        final MediaItem mediaItem = player.getCurrentMediaItem();
+        if (mediaItem == null || mediaItem.localConfiguration == null || uri.equals(mediaItem.localConfiguration.uri))
+            return;
+        player.setMediaItem(mediaItem.buildUpon()
+                .setUri(uri)
+                .setMimeType(MimeTypes.VIDEO_MATROSKA)
+                .build(), player.getCurrentPosition());
+        player.prepare();
+    }
+
+    private void showTutorial() {
+        if (!mPrefs.firstRun)
+            return;
+        TapTargetView.showFor(PlayerActivity.this,
+                TapTarget.forView(buttonOpen, getString(R.string.onboarding_open_title), getString(R.string.onboarding_open_description))
+                        .outerCircleColor(R.color.green)
+                        .targetCircleColor(R.color.white)
+                        .titleTextSize(22)
+                        .titleTextColor(R.color.white)
+                        .descriptionTextSize(14)
+                        .cancelable(true),
+                new TapTargetView.Listener() {
+                    @Override
+                    public void onTargetClick(TapTargetView view) {
+                        super.onTargetClick(view);
+                        buttonOpen.performClick();
+                    }
+                });
+        // TODO: Explain gestures?
+        //  "Use vertical and horizontal gestures to change brightness, volume and seek in video"
+        mPrefs.markFirstRun();
     }
 
     @Override
@@ -693,7 +881,17 @@ public class PlayerActivity extends Activity {
             playerView.removeCallbacks(barsHider);
             Utils.toggleSystemUi(this, playerView, true);
         }
-        initializePlayer();
+        if (backgroundPlaying) {
+            stopBackgroundPlayback();
+        } else if (warmHeld) {
+            resumeWarmHold();
+        } else if (firstDrawDone) {
+            initializePlayer();
+        } else {
+            StartupTrace.begin("initialize_player");
+            initializePlayer();
+            StartupTrace.end("initialize_player");
+        }
     }
 
     @Override
@@ -719,6 +917,124 @@ public class PlayerActivity extends Activity {
             playerView.removeCallbacks(barsHider);
         }
         playerView.setCustomErrorMessage(null);
+        if (canPlayInBackground()) {
+            startBackgroundPlayback();
+        } else if (canWarmHold()) {
+            startWarmHold();
+        } else {
+            releasePlayer(false);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (audioTranscoder != null) {
+            audioTranscoder.stop();
+            audioTranscoder = null;
+        }
+        releaseWarmHold();
+        releaseBackgroundPlayback();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Decoders and buffers of held player are the first thing to give up under memory pressure
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            releaseWarmHold();
+        }
+    }
+
+    private boolean canWarmHold() {
+        if (mPrefs.warmHold <= 0 || player == null || !haveMedia || isFinishing() || isChangingConfigurations()) {
+            return false;
+        }
+        // Closed PiP window
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.N || !isInPictureInPictureMode();
+    }
+
+    private boolean canPlayInBackground() {
+        if (!mPrefs.backgroundPlayback || player == null || !player.getPlayWhenReady() || !haveMedia
+                || isFinishing() || isChangingConfigurations()) {
+            return false;
+        }
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.N || !isInPictureInPictureMode();
+    }
+
+    // Playback continues (audio only) in the same player, service keeps the process in foreground
+    private void startBackgroundPlayback() {
+        backgroundPlaying = true;
+        // Nothing to decode video for, audio stream stays untouched by the reselection
+        trackSelector.setParameters(trackSelector.buildUponParameters()
+                .setDisabledTrackTypes(Collections.singleton(C.TRACK_TYPE_VIDEO)));
+        player.clearVideoSurface();
+        player.setWakeMode(Utils.isSupportedNetworkUri(mPrefs.mediaUri) ? C.WAKE_MODE_NETWORK : C.WAKE_MODE_LOCAL);
+        PlaybackService.start(this, mediaSession.getSessionToken(), this::releaseBackgroundPlayback);
+    }
+
+    private void stopBackgroundPlayback() {
+        backgroundPlaying = false;
+        PlaybackService.stop(this);
+        player.setWakeMode(C.WAKE_MODE_NONE);
+        attachVideoSurface();
+        trackSelector.setParameters(trackSelector.buildUponParameters()
+                .setDisabledTrackTypes(Collections.emptySet()));
+    }
+
+    // Playback stopped from notification or activity is gone
+    private void releaseBackgroundPlayback() {
+        if (!backgroundPlaying) {
+            return;
+        }
+        backgroundPlaying = false;
+        PlaybackService.stop(this);
+        releasePlayer();
+    }
+
+    private void attachVideoSurface() {
+        final View videoSurfaceView = playerView.getVideoSurfaceView();
+        if (videoSurfaceView instanceof SurfaceView) {
+            player.setVideoSurfaceView((SurfaceView) videoSurfaceView);
+        } else if (videoSurfaceView instanceof TextureView) {
+            player.setVideoTextureView((TextureView) videoSurfaceView);
+        }
+    }
+
+    // Keep prepared player (and its buffer) paused for a while instead of releasing it
+    private void startWarmHold() {
+        // Position and meta were already saved in onPause()
+        if (player.isPlaying() && restorePlayStateAllowed) {
+            restorePlayState = true;
+        }
+        player.pause();
+        player.clearVideoSurface();
+        mediaSession.setActive(false);
+        warmHeld = true;
+        playerView.postDelayed(warmHoldExpired, mPrefs.warmHold * 1000L);
+    }
+
+    private void resumeWarmHold() {
+        warmHeld = false;
+        playerView.removeCallbacks(warmHoldExpired);
+
+        attachVideoSurface();
+        mediaSession.setActive(true);
+
+        if (restorePlayState) {
+            restorePlayState = false;
+            playerView.showController();
+            playerView.setControllerShowTimeoutMs(PlayerActivity.CONTROLLER_TIMEOUT);
+            player.setPlayWhenReady(true);
+        }
+    }
+
+    private void releaseWarmHold() {
+        if (!warmHeld) {
+            return;
+        }
+        warmHeld = false;
+        playerView.removeCallbacks(warmHoldExpired);
         releasePlayer(false);
     }
 
@@ -738,6 +1054,9 @@ public class PlayerActivity extends Activity {
                     if (duration != C.TIME_UNSET) {
                         intent.putExtra(API_DURATION, (int) player.getDuration());
                     }
+                    if (apiPlaylist != null) {
+                        apiPlaylist.updatePosition(player.getCurrentMediaItemIndex(), player.getCurrentPosition());
+                    }
                     if (player.isCurrentMediaItemSeekable()) {
                         if (mPrefs.persistentMode) {
                             intent.putExtra(API_POSITION, (int) mPrefs.nonPersitentPosition);
@@ -747,6 +1066,12 @@ public class PlayerActivity extends Activity {
                     }
                 }
             }
+            if (apiPlaylist != null) {
+                if (playbackFinished && player != null) {
+                    apiPlaylist.updatePosition(player.getCurrentMediaItemIndex(), player.getDuration());
+                }
+                apiPlaylist.putResult(intent);
+            }
             setResult(Activity.RESULT_OK, intent);
         }
 
@@ -766,6 +1091,7 @@ public class PlayerActivity extends Activity {
                 if (SubtitleUtils.isSubtitle(uri, type)) {
                     handleSubtitles(uri);
                 } else {
+                    apiPlaylist = null;
                     mPrefs.updateMedia(this, uri, type);
                     searchSubtitles();
                 }
@@ -828,8 +1154,7 @@ public class PlayerActivity extends Activity {
                     long seekTo = pos - 10_000;
                     if (seekTo < 0)
                         seekTo = 0;
-                    player.setSeekParameters(SeekParameters.PREVIOUS_SYNC);
-                    player.seekTo(seekTo);
+                    seekScheduler.seekTo(seekTo, SeekParameters.PREVIOUS_SYNC);
                     final String message = Utils.formatMilisSign(seekTo - playerView.keySeekStart) + "\n" + Utils.formatMilis(seekTo);
                     playerView.setCustomErrorMessage(message);
                     return true;
@@ -850,8 +1175,7 @@ public class PlayerActivity extends Activity {
                     long seekMax = player.getDuration();
                     if (seekMax != C.TIME_UNSET && seekTo > seekMax)
                         seekTo = seekMax;
-                    PlayerActivity.player.setSeekParameters(SeekParameters.NEXT_SYNC);
-                    player.seekTo(seekTo);
+                    seekScheduler.seekTo(seekTo, SeekParameters.NEXT_SYNC);
                     final String message = Utils.formatMilisSign(seekTo - playerView.keySeekStart) + "\n" + Utils.formatMilis(seekTo);
                     playerView.setCustomErrorMessage(message);
                     return true;
@@ -1013,11 +1337,18 @@ public class PlayerActivity extends Activity {
         apiAccess = false;
         apiTitle = null;
         apiSubs.clear();
+        apiPlaylist = null;
         mPrefs.setPersistent(true);
     }
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        // Held player would resume with outdated media or settings
+        if (resultCode == RESULT_OK || requestCode == REQUEST_SETTINGS) {
+            releaseWarmHold();
+            releaseBackgroundPlayback();
+        }
+
         try {
             if (restoreOrientationLock) {
                 Settings.System.putInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 0);
@@ -1044,7 +1375,7 @@ public class PlayerActivity extends Activity {
                     // https://commonsware.com/blog/2020/06/13/count-your-saf-uri-permission-grants.html
                     final ContentResolver contentResolver = getContentResolver();
                     for (UriPermission persistedUri : contentResolver.getPersistedUriPermissions()) {
-                        if (persistedUri.getUri().equals(mPrefs.scopeUri)) {
+                        if (persistedUri.getUri().equals(mPrefs.scopeUri) || WatchNext.isPublished(this, persistedUri.getUri())) {
                             continue;
                         } else if (persistedUri.getUri().equals(uri)) {
                             uriAlreadyTaken = true;
@@ -1101,6 +1432,7 @@ public class PlayerActivity extends Activity {
             }
         } else if (requestCode == REQUEST_SETTINGS) {
             mPrefs.loadUserPreferences();
+            MediaIndex.schedule(this, mPrefs.mediaIndex, isTvBox);
         } else {
             super.onActivityResult(requestCode, resultCode, data);
         }
@@ -1120,8 +1452,17 @@ public class PlayerActivity extends Activity {
     }
 
     public void initializePlayer() {
+        warmHeld = false;
+        playerView.removeCallbacks(warmHoldExpired);
+        if (backgroundPlaying) {
+            backgroundPlaying = false;
+            PlaybackService.stop(this);
+        }
+
+        final long openStart = SystemClock.elapsedRealtime();
         boolean isNetworkUri = mPrefs.mediaUri != null && Utils.isSupportedNetworkUri(mPrefs.mediaUri);
         haveMedia = mPrefs.mediaUri != null && (Utils.fileExists(this, mPrefs.mediaUri) || isNetworkUri);
+        final long fileExistsDuration = SystemClock.elapsedRealtime() - openStart;
 
         if (player != null) {
             player.removeListener(playerListener);
@@ -1143,28 +1484,77 @@ public class PlayerActivity extends Activity {
         DefaultExtractorsFactory extractorsFactory = new DefaultExtractorsFactory()
                 .setTsExtractorFlags(DefaultTsPayloadReaderFactory.FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS)
                 .setTsExtractorTimestampSearchBytes(1500 * TsExtractor.TS_PACKET_SIZE);
-        @SuppressLint("WrongConstant") RenderersFactory renderersFactory = new DefaultRenderersFactory(this)
-                .setExtensionRendererMode(mPrefs.decoderPriority);
-
-        ExoPlayer.Builder playerBuilder = new ExoPlayer.Builder(this, renderersFactory)
-                .setTrackSelector(trackSelector)
-                .setMediaSourceFactory(new DefaultMediaSourceFactory(this, extractorsFactory));
-
+        final HintExtractorsFactory hintExtractorsFactory = new HintExtractorsFactory(this, extractorsFactory, mPrefs.mediaUri, mPrefs.mediaType);
+        decoderFallback = new DecoderFallback(this);
+        decoderRetries = 0;
+        // Offloaded audio bypasses audio processors (silence skipping, speed, compression) and effects (loudness, boost)
+        audioOffload = mPrefs.audioOffload && !mPrefs.skipSilence && !mPrefs.dynamicRangeCompression && !mPrefs.loudnessNormalization
+                && boostLevel == 0 && !isSpeedChanged(mPrefs.speed);
+        @SuppressLint("WrongConstant") RenderersFactory renderersFactory = new CustomDefaultRenderersFactory(this, decoderFallback, mPrefs.av1Threads,
+                mPrefs.dynamicRangeCompression)
+                .setMediaCodecSelector(new DecoderInfoCache())
+                .setExtensionRendererMode(mPrefs.decoderPriority)
+                .setEnableAudioOffload(audioOffload);
+
+        // Basic auth from uri is added by HttpClient interceptor
+        final OkHttpDataSource.Factory httpDataSourceFactory = new OkHttpDataSource.Factory(HttpClient.get(this))
+                .setUserAgent(ExoPlayerLibraryInfo.DEFAULT_USER_AGENT);
+        final DataSource.Factory dataSourceFactory = new FileChannelDataSource.Factory(this,
+                new DefaultDataSource.Factory(this, httpDataSourceFactory));
+
+        // Adaptive streams start at quality matching throughput last seen on this network
+        final DefaultBandwidthMeter.Builder bandwidthMeterBuilder = new DefaultBandwidthMeter.Builder(this);
+        saveBandwidthEstimate();
+        bandwidthSampled = false;
         if (haveMedia && isNetworkUri) {
-            if (mPrefs.mediaUri.getScheme().toLowerCase().startsWith("http")) {
-                HashMap<String, String> headers = new HashMap<>();
-                String userInfo = mPrefs.mediaUri.getUserInfo();
-                if (userInfo != null && userInfo.length() > 0 && userInfo.contains(":")) {
-                    headers.put("Authorization", "Basic " + Base64.encodeToString(userInfo.getBytes(),Base64.NO_WRAP));
-                    DefaultHttpDataSource.Factory defaultHttpDataSourceFactory = new DefaultHttpDataSource.Factory();
-                    defaultHttpDataSourceFactory.setDefaultRequestProperties(headers);
-                    playerBuilder.setMediaSourceFactory(new DefaultMediaSourceFactory(defaultHttpDataSourceFactory, extractorsFactory));
+            bandwidthNetworkKey = Utils.getNetworkKey(this, mPrefs.mediaUri);
+            final long bandwidthEstimate = mPrefs.getBandwidthEstimate(bandwidthNetworkKey);
+            if (bandwidthEstimate > 0) {
+                final int networkType = NetworkTypeObserver.getInstance(this).getNetworkType();
+                if (networkType == C.NETWORK_TYPE_UNKNOWN) {
+                    bandwidthMeterBuilder.setInitialBitrateEstimate(bandwidthEstimate);
+                } else {
+                    bandwidthMeterBuilder.setInitialBitrateEstimate(networkType, bandwidthEstimate);
                 }
             }
         }
+        bandwidthMeter = bandwidthMeterBuilder.build();
+        bandwidthMeter.addEventListener(new Handler(Looper.getMainLooper()), (elapsedMs, bytesTransferred, bitrateEstimate) -> bandwidthSampled = true);
+
+        ExoPlayer.Builder playerBuilder = new ExoPlayer.Builder(this, renderersFactory)
+                .setTrackSelector(trackSelector)
+                .setBandwidthMeter(bandwidthMeter)
+                .setMediaSourceFactory(new DefaultMediaSourceFactory(dataSourceFactory, hintExtractorsFactory));
 
         player = playerBuilder.build();
 
+        if (seekScheduler != null) {
+            seekScheduler.release();
+        }
+        seekScheduler = new SeekScheduler(player);
+        player.addAnalyticsListener(seekScheduler);
+
+        if (diagnostics != null) {
+            diagnostics.release();
+            diagnostics = null;
+        }
+        if (mPrefs.statsOverlay || mPrefs.diagnosticsLog) {
+            diagnostics = new PlaybackDiagnostics(this, player, playerView, mPrefs.statsOverlay, mPrefs.diagnosticsLog);
+            player.addAnalyticsListener(diagnostics);
+            player.addAudioOffloadListener(diagnostics);
+        }
+        player.experimentalSetOffloadSchedulingEnabled(audioOffload);
+
+        if (sessionReport != null) {
+            sessionReport.finish();
+            sessionReport = null;
+        }
+        if (haveMedia && mPrefs.diagnosticsLog) {
+            sessionReport = new SessionReport(this, mPrefs.mediaUri, isNetworkUri, openStart, hintExtractorsFactory, diagnostics);
+            sessionReport.put("file_exists", fileExistsDuration);
+            player.addAnalyticsListener(sessionReport);
+        }
+
         AudioAttributes audioAttributes = new AudioAttributes.Builder()
                 .setUsage(C.USAGE_MEDIA)
                 .setContentType(C.CONTENT_TYPE_MOVIE)
@@ -1176,6 +1566,7 @@ public class PlayerActivity extends Activity {
         }
 
         youTubeOverlay.player(player);
+        youTubeOverlay.seekHandler(seekScheduler);
         playerView.setPlayer(player);
 
         mediaSession = new MediaSessionCompat(this, getString(R.string.app_name));
@@ -1185,15 +1576,11 @@ public class PlayerActivity extends Activity {
         mediaSessionConnector.setMediaMetadataProvider(player -> {
             if (mPrefs.mediaUri == null)
                 return null;
-            final String title = Utils.getFileName(PlayerActivity.this, mPrefs.mediaUri);
-            if (title == null)
-                return null;
-            else
-                return new MediaMetadataCompat.Builder()
-                        .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE, title)
-                        .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
-                        .build();
+            return MediaLibrary.getMetadata(PlayerActivity.this, mPrefs.mediaUri);
         });
+        if (haveMedia && !isNetworkUri) {
+            MediaLibrary.loadArtwork(this, mPrefs.mediaUri, mediaSessionConnector::invalidateMediaSessionMetadata);
+        }
 
         playerView.setControllerShowTimeoutMs(-1);
 
@@ -1217,16 +1604,43 @@ public class PlayerActivity extends Activity {
                 playerView.setScale(1.f);
             }
 
+            // Conversion keeps running while activity is stopped
+            if (audioTranscoder != null && (!mPrefs.audioTranscode || !audioTranscoder.isFor(mPrefs.mediaUri))) {
+                audioTranscoder.stop();
+                audioTranscoder = null;
+            }
+            // Replacing converted item would drop the playlist
+            if (audioTranscoder == null && mPrefs.audioTranscode && !isNetworkUri && apiPlaylist == null) {
+                audioTranscoder = new AudioTranscoder(this, mPrefs.mediaUri, this::onAudioTranscoded);
+                audioTranscoder.start();
+            }
+            final Uri transcodedUri = audioTranscoder != null ? audioTranscoder.getOutput() : null;
+
             MediaItem.Builder mediaItemBuilder = new MediaItem.Builder()
-                    .setUri(mPrefs.mediaUri)
-                    .setMimeType(mPrefs.mediaType);
+                    .setUri(transcodedUri != null ? transcodedUri : mPrefs.mediaUri)
+                    .setMimeType(transcodedUri != null ? MimeTypes.VIDEO_MATROSKA : mPrefs.mediaType);
             if (apiAccess && apiSubs.size() > 0) {
                 mediaItemBuilder.setSubtitleConfigurations(apiSubs);
             } else if (mPrefs.subtitleUri != null && Utils.fileExists(this, mPrefs.subtitleUri)) {
                 MediaItem.SubtitleConfiguration subtitle = SubtitleUtils.buildSubtitle(this, mPrefs.subtitleUri, null, true);
                 mediaItemBuilder.setSubtitleConfigurations(Collections.singletonList(subtitle));
             }
-            player.setMediaItem(mediaItemBuilder.build(), mPrefs.getPosition());
+            if (apiPlaylist != null) {
+                player.setMediaItems(apiPlaylist.buildMediaItems(this), apiPlaylist.index, mPrefs.getPosition());
+                final ApiPlaylist playlist = apiPlaylist;
+                apiPlaylist.resolve(this, (index, mediaItem) -> {
+                    // Current item keeps playing as it is
+                    if (player == null || apiPlaylist != playlist || index == player.getCurrentMediaItemIndex()
+                            || index >= player.getMediaItemCount())
+                        return;
+                    player.removeMediaItem(index);
+                    player.addMediaItem(index, mediaItem);
+                });
+            } else {
+                player.setMediaItem(mediaItemBuilder.build(), mPrefs.getPosition());
+            }
+            playerView.setShowNextButton(apiPlaylist != null);
+            playerView.setShowPreviousButton(apiPlaylist != null);
 
             if (loudnessEnhancer != null) {
                 loudnessEnhancer.release();
@@ -1250,7 +1664,7 @@ public class PlayerActivity extends Activity {
             if (apiTitle != null) {
                 titleView.setText(apiTitle);
             } else {
-                titleView.setText(Utils.getFileName(this, mPrefs.mediaUri));
+                titleView.setText(MediaIndex.getFileName(this, mPrefs.mediaUri));
             }
             titleView.setVisibility(View.VISIBLE);
 
@@ -1272,7 +1686,7 @@ public class PlayerActivity extends Activity {
                 nextUriThread.start();
             }
 
-            Utils.markChapters(this, mPrefs.mediaUri, controlView);
+            startMediaAnalysis(isNetworkUri);
 
             player.setHandleAudioBecomingNoisy(!isTvBox);
             mediaSession.setActive(true);
@@ -1281,6 +1695,9 @@ public class PlayerActivity extends Activity {
         }
 
         player.addListener(playerListener);
+        if (sessionReport != null) {
+            sessionReport.begin("prepare");
+        }
         player.prepare();
 
         if (restorePlayState) {
@@ -1300,6 +1717,8 @@ public class PlayerActivity extends Activity {
                 // Prevent overwriting temporarily inaccessible media position
                 if (player.isCurrentMediaItemSeekable()) {
                     mPrefs.updatePosition(player.getCurrentPosition());
+                    MediaLibraryService.notifyPositionsChanged();
+                    WatchNext.schedule(this);
                 }
                 mPrefs.updateMeta(getSelectedTrack(C.TRACK_TYPE_AUDIO),
                         getSelectedTrack(C.TRACK_TYPE_TEXT),
@@ -1314,11 +1733,20 @@ public class PlayerActivity extends Activity {
         releasePlayer(true);
     }
 
+    private void saveBandwidthEstimate() {
+        if (bandwidthNetworkKey != null && bandwidthSampled) {
+            mPrefs.updateBandwidthEstimate(bandwidthNetworkKey, bandwidthMeter.getBitrateEstimate());
+        }
+        bandwidthNetworkKey = null;
+    }
+
     public void releasePlayer(boolean save) {
         if (save) {
             savePlayer();
         }
 
+        saveBandwidthEstimate();
+
         if (player != null) {
             notifyAudioSessionUpdate(false);
 
@@ -1333,11 +1761,116 @@ public class PlayerActivity extends Activity {
             player.release();
             player = null;
         }
+        if (seekScheduler != null) {
+            seekScheduler.release();
+            seekScheduler = null;
+        }
+        if (diagnostics != null) {
+            diagnostics.release();
+            diagnostics = null;
+        }
+        if (sessionReport != null) {
+            sessionReport.finish();
+            sessionReport = null;
+        }
+        if (seekPreview != null) {
+            seekPreview.stop();
+            seekPreview = null;
+        }
+        if (keyframeIndex != null) {
+            keyframeIndex.stop();
+            keyframeIndex = null;
+        }
+        if (loudnessAnalyzer != null) {
+            loudnessAnalyzer.stop();
+            loudnessAnalyzer = null;
+        }
+        hideSeekPreview();
         titleView.setVisibility(View.GONE);
         updateButtons(false);
     }
 
+    // Per file helpers, restarted when playlist moves to another item
+    private void startMediaAnalysis(final boolean isNetworkUri) {
+        Utils.markChapters(this, mPrefs.mediaUri, controlView);
+
+        if (seekPreview != null) {
+            seekPreview.stop();
+            seekPreview = null;
+        }
+        if (mPrefs.seekPreview && !isNetworkUri) {
+            seekPreview = new SeekPreview(this, mPrefs.mediaUri);
+            seekPreview.start();
+        }
+
+        if (keyframeIndex != null) {
+            keyframeIndex.stop();
+            keyframeIndex = null;
+        }
+        if (mPrefs.keyframeIndex && KeyframeIndex.isSupported(mPrefs.mediaUri, mPrefs.mediaType)) {
+            keyframeIndex = new KeyframeIndex(this, mPrefs.mediaUri);
+            keyframeIndex.start();
+        }
+
+        if (loudnessAnalyzer != null) {
+            loudnessAnalyzer.stop();
+            loudnessAnalyzer = null;
+        }
+        setLoudnessGain(0);
+        if (mPrefs.loudnessNormalization && !isNetworkUri) {
+            loudnessAnalyzer = new LoudnessAnalyzer(this, mPrefs.mediaUri, this::onLoudnessAnalyzed);
+            loudnessAnalyzer.start();
+        }
+    }
+
+    private void onApiPlaylistItemChanged(final int index) {
+        apiPlaylist.index = index;
+        final long position = apiPlaylist.start();
+        if (position > 0 && player != null)
+            player.seekTo(index, position);
+        final Uri uri = apiPlaylist.getUri();
+        mPrefs.updateMedia(this, uri, null);
+        apiTitle = apiPlaylist.getName();
+        titleView.setText(apiTitle != null ? apiTitle : MediaIndex.getFileName(this, uri));
+        startMediaAnalysis(Utils.isSupportedNetworkUri(uri));
+    }
+
+    private static boolean isSpeedChanged(final float speed) {
+        return speed <= 0.99f || speed >= 1.01f;
+    }
+
+    // Reopen with PCM output so the new speed or boost can be applied
+    void disableAudioOffload() {
+        if (player == null || !audioOffload)
+            return;
+        reinitializePlayer();
+    }
+
+    private void reinitializePlayer() {
+        final boolean playing = player.isPlaying();
+        releasePlayer();
+        initializePlayer();
+        if (playing) {
+            play = true;
+        }
+    }
+
     private class PlayerListener implements Player.Listener {
+        @Override
+        public void onPositionDiscontinuity(@NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, int reason) {
+            if (apiPlaylist != null && oldPosition.mediaItemIndex != newPosition.mediaItemIndex) {
+                apiPlaylist.updatePosition(oldPosition.mediaItemIndex, oldPosition.positionMs);
+                onApiPlaylistItemChanged(newPosition.mediaItemIndex);
+            }
+        }
+
+        @Override
+        public void onPlaybackParametersChanged(@NonNull PlaybackParameters playbackParameters) {
+            if (audioOffload && isSpeedChanged(playbackParameters.speed)) {
+                playerView.post(PlayerActivity.this::disableAudioOffload);
+            }
+        }
+
         @Override
         public void onAudioSessionIdChanged(int audioSessionId) {
             if (loudnessEnhancer != null) {
@@ -1348,6 +1881,7 @@ public class PlayerActivity extends Activity {
             } catch (RuntimeException e) {
                 e.printStackTrace();
             }
+            Utils.updateLoudnessEnhancer();
             notifyAudioSessionUpdate(true);
         }
 
@@ -1405,8 +1939,6 @@ public class PlayerActivity extends Activity {
             setEndControlsVisible(haveMedia && (state == Player.STATE_ENDED || isNearEnd));
 
             if (state == Player.STATE_READY) {
-                frameRendered = true;
-
                 if (videoLoading) {
                     videoLoading = false;
 
@@ -1452,6 +1984,9 @@ public class PlayerActivity extends Activity {
                                     public void onDisplayChanged(int displayId) {
                                         if (play) {
                                             play = false;
+                                            if (sessionReport != null) {
+                                                sessionReport.end("display_mode_change");
+                                            }
                                             displayManager.unregisterDisplayListener(this);
                                             if (player != null) {
                                                 player.play();
@@ -1465,6 +2000,9 @@ public class PlayerActivity extends Activity {
                             }
                             displayManager.registerDisplayListener(displayListener, null);
                         }
+                        if (sessionReport != null) {
+                            sessionReport.begin("frame_rate_switch");
+                        }
                         switched = Utils.switchFrameRate(PlayerActivity.this, mPrefs.mediaUri, play);
                     }
                     if (!switched) {
@@ -1480,7 +2018,7 @@ public class PlayerActivity extends Activity {
 
                     updateLoading(false);
 
-                    if (mPrefs.speed <= 0.99f || mPrefs.speed >= 1.01f) {
+                    if (isSpeedChanged(mPrefs.speed)) {
                         player.setPlaybackSpeed(mPrefs.speed);
                     }
                     if (!apiAccess) {
@@ -1497,6 +2035,13 @@ public class PlayerActivity extends Activity {
 
         @Override
         public void onPlayerError(PlaybackException error) {
+            if (error instanceof ExoPlaybackException && decoderRetries < DECODER_RETRIES_MAX
+                    && decoderFallback.onError((ExoPlaybackException) error, mPrefs.mediaUri)) {
+                // Continue from failed position with next decoder
+                decoderRetries++;
+                player.prepare();
+                return;
+            }
             updateLoading(false);
             if (error instanceof ExoPlaybackException) {
                 final ExoPlaybackException exoPlaybackException = (ExoPlaybackException) error;
@@ -1840,9 +2385,57 @@ public class PlayerActivity extends Activity {
             playerView.clearIcon();
             playerView.setCustomErrorMessage(Utils.formatMilisSign(diff));
         }
-        if (frameRendered) {
-            frameRendered = false;
-            player.seekTo(position);
+        // Seek only after finger dwells (or on scrub stop) when thumbnail is available
+        if (showSeekPreview(position)) {
+            playerView.removeCallbacks(seekPreviewDwell);
+            playerView.postDelayed(seekPreviewDwell, SEEK_PREVIEW_DWELL);
+            return;
+        }
+        seekScheduler.seekTo(position, SeekParameters.CLOSEST_SYNC);
+    }
+
+    private boolean showSeekPreview(long position) {
+        if (seekPreview == null || !isScrubbing)
+            return false;
+        final Bitmap tile = seekPreview.getTile(position);
+        if (tile == null) {
+            seekPreviewView.setVisibility(View.GONE);
+            return false;
+        }
+
+        final View parent = (View) seekPreviewView.getParent();
+        final int width = Utils.dpToPx(160);
+        final int height = width * tile.getHeight() / tile.getWidth();
+        if (seekPreviewView.getLayoutParams().width != width || seekPreviewView.getLayoutParams().height != height) {
+            seekPreviewView.setLayoutParams(new FrameLayout.LayoutParams(width, height));
+        }
+        seekPreviewView.setImageBitmap(tile);
+
+        final int[] timeBarLocation = new int[2];
+        final int[] parentLocation = new int[2];
+        timeBar.getLocationInWindow(timeBarLocation);
+        parent.getLocationInWindow(parentLocation);
+        final long duration = player.getDuration();
+        int scrubberX;
+        if (timeBar.scrubberBar != null) {
+            scrubberX = timeBar.scrubberBar.right;
+        } else {
+            scrubberX = duration > 0 ? (int) (timeBar.getWidth() * position / duration) : 0;
+        }
+        final float x = timeBarLocation[0] - parentLocation[0] + scrubberX - width / 2f;
+        seekPreviewView.setX(Math.max(0, Math.min(x, parent.getWidth() - width)));
+        seekPreviewView.setY(timeBarLocation[1] - parentLocation[1] - height - Utils.dpToPx(8));
+        seekPreviewView.setVisibility(View.VISIBLE);
+        seekPreviewShown = true;
+        return true;
+    }
+
+    private void hideSeekPreview() {
+        playerView.removeCallbacks(seekPreviewDwell);
+        seekPreviewShown = false;
+        if (seekPreviewView != null) {
+            seekPreviewView.setVisibility(View.GONE);
+            seekPreviewView.setImageBitmap(null);
         }
     }
 
@@ -1891,25 +2484,38 @@ public class PlayerActivity extends Activity {
             return;
         }
 
+        final Uri subtitleUri = findSubtitle(mPrefs.mediaUri);
+        if (subtitleUri != null) {
+            handleSubtitles(subtitleUri);
+        }
+    }
+
+    // Sidecar subtitle of local file, safe to call in background
+    private Uri findSubtitle(final Uri mediaUri) {
         if (mPrefs.scopeUri != null || isTvBox) {
+            final MediaIndex.Entry entry = MediaIndex.getCurrent(this, mediaUri);
+            if (entry != null && entry.subtitle != null) {
+                return Uri.parse(entry.subtitle);
+            }
+
             DocumentFile video = null;
             File videoRaw = null;
-            final String scheme = mPrefs.mediaUri.getScheme();
+            final String scheme = mediaUri.getScheme();
 
             if (mPrefs.scopeUri != null) {
-                if ("com.android.externalstorage.documents".equals(mPrefs.mediaUri.getHost()) ||
-                        "org.courville.nova.provider".equals(mPrefs.mediaUri.getHost())) {
+                if ("com.android.externalstorage.documents".equals(mediaUri.getHost()) ||
+                        "org.courville.nova.provider".equals(mediaUri.getHost())) {
                     // Fast search based on path in uri
-                    video = SubtitleUtils.findUriInScope(this, mPrefs.scopeUri, mPrefs.mediaUri);
+                    video = SubtitleUtils.findUriInScope(this, mPrefs.scopeUri, mediaUri);
                 } else {
                     // Slow search based on matching metadata, no path in uri
                     // Provider "com.android.providers.media.documents" when using "Videos" tab in file picker
                     DocumentFile fileScope = DocumentFile.fromTreeUri(this, mPrefs.scopeUri);
-                    DocumentFile fileMedia = DocumentFile.fromSingleUri(this, mPrefs.mediaUri);
+                    DocumentFile fileMedia = DocumentFile.fromSingleUri(this, mediaUri);
                     video = SubtitleUtils.findDocInScope(fileScope, fileMedia);
                 }
             } else if (ContentResolver.SCHEME_FILE.equals(scheme)) {
-                videoRaw = new File(mPrefs.mediaUri.getSchemeSpecificPart());
+                videoRaw = new File(mediaUri.getSchemeSpecificPart());
                 video = DocumentFile.fromFile(videoRaw);
             }
 
@@ -1924,13 +2530,22 @@ public class PlayerActivity extends Activity {
                 }
 
                 if (subtitle != null) {
-                    handleSubtitles(subtitle.getUri());
+                    return subtitle.getUri();
                 }
             }
         }
+        return null;
     }
 
     Uri findNext() {
+        final MediaIndex.Entry entry = MediaIndex.getCurrent(this, mPrefs.mediaUri);
+        if (entry != null && entry.next != null) {
+            final Uri next = Uri.parse(entry.next);
+            if (Utils.fileExists(this, next)) {
+                return next;
+            }
+        }
+
         // TODO: Unify with searchSubtitles()
         if (mPrefs.scopeUri != null || isTvBox) {
             DocumentFile video = null;
@@ -4,15 +4,21 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 
 import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ui.AspectRatioFrameLayout;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 
+import java.io.EOFException;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Set;
 
@@ -43,6 +49,26 @@ class Prefs {
     private static final String PREF_KEY_SPEED = "speed";
     private static final String PREF_KEY_FILE_ACCESS = "fileAccess";
     private static final String PREF_KEY_DECODER_PRIORITY = "decoderPriority";
+    private static final String PREF_KEY_MEDIA_INDEX = "mediaIndex";
+    private static final String PREF_KEY_SEEK_PREVIEW = "seekPreview";
+    private static final String PREF_KEY_KEYFRAME_INDEX = "keyframeIndex";
+    private static final String PREF_KEY_STATS_OVERLAY = "statsOverlay";
+    private static final String PREF_KEY_DIAGNOSTICS_LOG = "diagnosticsLog";
+    private static final String PREF_KEY_WARM_HOLD = "warmHold";
+    private static final String PREF_KEY_BACKGROUND_PLAYBACK = "backgroundPlayback";
+    private static final String PREF_KEY_AV1_THREADS = "av1Threads";
+    private static final String PREF_KEY_AUDIO_TRANSCODE = "audioTranscode";
+    private static final String PREF_KEY_LOUDNESS_NORMALIZATION = "loudnessNormalization";
+    private static final String PREF_KEY_DYNAMIC_RANGE_COMPRESSION = "dynamicRangeCompression";
+    private static final String PREF_KEY_AUDIO_OFFLOAD = "audioOffload";
+
+    private static final String POSITION_KEY_FINGERPRINT = "fingerprint:";
+    private static final Object POSITIONS_LOCK = new Object();
+
+    private static final String PREF_KEY_BANDWIDTH_PREFIX = "bandwidth:";
+    private static final String PREF_KEY_BANDWIDTH_TIME_PREFIX = "bandwidthTime:";
+    // Stored estimate loses half of its weight (against default estimate) per day
+    private static final long BANDWIDTH_HALF_LIFE = 24 * 60 * 60 * 1000;
 
     final Context mContext;
     final SharedPreferences mSharedPreferences;
@@ -70,8 +96,30 @@ class Prefs {
     public boolean repeatToggle = false;
     public String fileAccess = "auto";
     public int decoderPriority = DefaultRenderersFactory.EXTENSION_RENDERER_MODE_ON;
+    public boolean mediaIndex = false;
+    public boolean seekPreview = false;
+    public boolean keyframeIndex = false;
+    public boolean statsOverlay = false;
+    public boolean diagnosticsLog = false;
+    public int warmHold = 0;
+    public boolean backgroundPlayback = false;
+    public int av1Threads = 0;
+    public boolean audioTranscode = false;
+    public boolean loudnessNormalization = false;
+    public boolean dynamicRangeCompression = false;
+    public boolean audioOffload = false;
 
     private LinkedHashMap positions;
+    // Last played time by uri, stored after positions in the same file
+    private HashMap<String, Long> positionTimes;
+    private Thread positionsThread;
+    private Uri fingerprintUri;
+    private String fingerprint;
+    private FingerprintListener fingerprintListener;
+
+    interface FingerprintListener {
+        void onFingerprintPosition(Uri uri, long position);
+    }
 
     public boolean persistentMode = true;
     public long nonPersitentPosition = -1L;
@@ -80,7 +128,69 @@ class Prefs {
         mContext = context;
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         loadSavedPreferences();
-        loadPositions();
+        // Deserializing position history is not needed before layout is inflated
+        positionsThread = new Thread(this::loadPositions);
+        positionsThread.start();
+        loadFingerprint();
+    }
+
+    // Reading the file is not done on main thread, position saved under fingerprint is passed to listener when it's ready
+    private void loadFingerprint() {
+        final Uri uri = mediaUri;
+        synchronized (this) {
+            fingerprintUri = uri;
+            fingerprint = null;
+        }
+        if (uri == null || Utils.isSupportedNetworkUri(uri))
+            return;
+        new Thread(() -> {
+            final String fingerprint = MediaFingerprint.get(mContext, uri);
+            synchronized (this) {
+                if (uri.equals(fingerprintUri))
+                    this.fingerprint = fingerprint;
+            }
+            if (fingerprint != null)
+                new Handler(Looper.getMainLooper()).post(() -> onFingerprint(uri, fingerprint));
+        }).start();
+    }
+
+    // Main thread
+    private void onFingerprint(final Uri uri, final String fingerprint) {
+        if (fingerprintListener == null || !persistentMode || !uri.equals(mediaUri))
+            return;
+        waitForPositions();
+        // Position of the uri itself is used right away
+        if (positions.containsKey(uri.toString()))
+            return;
+        final Object val = positions.get(POSITION_KEY_FINGERPRINT + fingerprint);
+        if (val != null)
+            fingerprintListener.onFingerprintPosition(uri, (long) val);
+    }
+
+    void setFingerprintListener(final FingerprintListener listener) {
+        fingerprintListener = listener;
+    }
+
+    // Null until computed, it's never waited for
+    private String getFingerprint() {
+        synchronized (this) {
+            return mediaUri != null && mediaUri.equals(fingerprintUri) ? fingerprint : null;
+        }
+    }
+
+    private void waitForPositions() {
+        if (positionsThread == null)
+            return;
+        try {
+            positionsThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        positionsThread = null;
+        if (positions == null) {
+            positions = new LinkedHashMap(10);
+            positionTimes = new HashMap<>();
+        }
     }
 
     private void loadSavedPreferences() {
@@ -115,11 +225,24 @@ class Prefs {
         repeatToggle = mSharedPreferences.getBoolean(PREF_KEY_REPEAT_TOGGLE, repeatToggle);
         fileAccess = mSharedPreferences.getString(PREF_KEY_FILE_ACCESS, fileAccess);
         decoderPriority = Integer.parseInt(mSharedPreferences.getString(PREF_KEY_DECODER_PRIORITY, String.valueOf(decoderPriority)));
+        mediaIndex = mSharedPreferences.getBoolean(PREF_KEY_MEDIA_INDEX, mediaIndex);
+        seekPreview = mSharedPreferences.getBoolean(PREF_KEY_SEEK_PREVIEW, seekPreview);
+        keyframeIndex = mSharedPreferences.getBoolean(PREF_KEY_KEYFRAME_INDEX, keyframeIndex);
+        statsOverlay = mSharedPreferences.getBoolean(PREF_KEY_STATS_OVERLAY, statsOverlay);
+        diagnosticsLog = mSharedPreferences.getBoolean(PREF_KEY_DIAGNOSTICS_LOG, diagnosticsLog);
+        warmHold = Integer.parseInt(mSharedPreferences.getString(PREF_KEY_WARM_HOLD, String.valueOf(warmHold)));
+        backgroundPlayback = mSharedPreferences.getBoolean(PREF_KEY_BACKGROUND_PLAYBACK, backgroundPlayback);
+        av1Threads = Integer.parseInt(mSharedPreferences.getString(PREF_KEY_AV1_THREADS, String.valueOf(av1Threads)));
+        audioTranscode = mSharedPreferences.getBoolean(PREF_KEY_AUDIO_TRANSCODE, audioTranscode);
+        loudnessNormalization = mSharedPreferences.getBoolean(PREF_KEY_LOUDNESS_NORMALIZATION, loudnessNormalization);
+        dynamicRangeCompression = mSharedPreferences.getBoolean(PREF_KEY_DYNAMIC_RANGE_COMPRESSION, dynamicRangeCompression);
+        audioOffload = mSharedPreferences.getBoolean(PREF_KEY_AUDIO_OFFLOAD, audioOffload);
     }
 
     public void updateMedia(final Context context, final Uri uri, final String type) {
         mediaUri = uri;
         mediaType = type;
+        loadFingerprint();
         updateSubtitle(null);
         updateMeta(null, null, AspectRatioFrameLayout.RESIZE_MODE_FIT, 1.f, 1.f);
 
@@ -165,11 +288,26 @@ class Prefs {
         if (mediaUri == null)
             return;
 
-        while (positions.size() > 100)
-            positions.remove(positions.keySet().toArray()[0]);
+        waitForPositions();
+
+        // Each file is stored under both uri and fingerprint
+        while (positions.size() > 200) {
+            final Object key = positions.keySet().toArray()[0];
+            positions.remove(key);
+            positionTimes.remove(key);
+        }
 
         if (persistentMode) {
+            // Most recently played last
+            positions.remove(mediaUri.toString());
             positions.put(mediaUri.toString(), position);
+            positionTimes.put(mediaUri.toString(), System.currentTimeMillis());
+            // Fingerprint is long known when position is saved during playback
+            final String fingerprint = getFingerprint();
+            if (fingerprint != null) {
+                positions.remove(POSITION_KEY_FINGERPRINT + fingerprint);
+                positions.put(POSITION_KEY_FINGERPRINT + fingerprint, position);
+            }
             savePositions();
         } else {
             nonPersitentPosition = position;
@@ -200,39 +338,86 @@ class Prefs {
     }
 
     private void savePositions() {
-        try {
-            FileOutputStream fos = mContext.openFileOutput("positions", Context.MODE_PRIVATE);
-            ObjectOutputStream os = new ObjectOutputStream(fos);
-            os.writeObject(positions);
-            os.close();
-            fos.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        synchronized (POSITIONS_LOCK) {
+            try {
+                FileOutputStream fos = mContext.openFileOutput("positions", Context.MODE_PRIVATE);
+                ObjectOutputStream os = new ObjectOutputStream(fos);
+                os.writeObject(positions);
+                os.writeObject(positionTimes);
+                os.close();
+                fos.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
     }
 
     private void loadPositions() {
-        try {
-            FileInputStream fis = mContext.openFileInput("positions");
-            ObjectInputStream is = new ObjectInputStream(fis);
-            positions = (LinkedHashMap) is.readObject();
-            is.close();
-            fis.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            positions = new LinkedHashMap(10);
+        final HashMap<String, Long> times = new HashMap<>();
+        positions = readPositions(mContext, times);
+        positionTimes = times;
+    }
+
+    static LinkedHashMap readPositions(final Context context) {
+        return readPositions(context, null);
+    }
+
+    // Null if the file can't be read (not to be taken for empty history), times are filled if given
+    @SuppressWarnings("unchecked")
+    static LinkedHashMap readPositions(final Context context, final HashMap<String, Long> times) {
+        // Not while it's being written (library and Watch Next read it on background threads)
+        synchronized (POSITIONS_LOCK) {
+            try {
+                FileInputStream fis = context.openFileInput("positions");
+                ObjectInputStream is = new ObjectInputStream(fis);
+                final LinkedHashMap positions = (LinkedHashMap) is.readObject();
+                if (times != null) {
+                    try {
+                        times.putAll((HashMap<String, Long>) is.readObject());
+                    } catch (EOFException e) {
+                        // Saved before times were stored
+                    }
+                }
+                is.close();
+                fis.close();
+                return positions;
+            } catch (FileNotFoundException e) {
+                return new LinkedHashMap(10);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
         }
     }
 
+    static boolean isFingerprintKey(final String key) {
+        return key.startsWith(POSITION_KEY_FINGERPRINT);
+    }
+
+    static Uri getScopeUri(final Context context) {
+        final String scopeUri = PreferenceManager.getDefaultSharedPreferences(context).getString(PREF_KEY_SCOPE_URI, null);
+        return scopeUri == null ? null : Uri.parse(scopeUri);
+    }
+
     public long getPosition() {
         if (!persistentMode) {
             return nonPersitentPosition;
         }
 
+        waitForPositions();
+
         Object val = positions.get(mediaUri.toString());
         if (val != null)
             return (long) val;
 
+        // Same file opened using different uri (other provider or moved file), if the fingerprint is ready
+        final String fingerprint = getFingerprint();
+        if (fingerprint != null) {
+            val = positions.get(POSITION_KEY_FINGERPRINT + fingerprint);
+            if (val != null)
+                return (long) val;
+        }
+
         // Return position for uri from limited scope (loaded after using Next action)
         if (ContentResolver.SCHEME_CONTENT.equals(mediaUri.getScheme())) {
             final String searchPath = SubtitleUtils.getTrailPathFromUri(mediaUri);
@@ -294,6 +479,24 @@ class Prefs {
         sharedPreferencesEditor.commit();
     }
 
+    public long getBandwidthEstimate(final String networkKey) {
+        final long estimate = mSharedPreferences.getLong(PREF_KEY_BANDWIDTH_PREFIX + networkKey, 0);
+        if (estimate <= 0)
+            return 0;
+        final long age = Math.max(0, System.currentTimeMillis() - mSharedPreferences.getLong(PREF_KEY_BANDWIDTH_TIME_PREFIX + networkKey, 0));
+        final double weight = Math.pow(0.5, age / (double) BANDWIDTH_HALF_LIFE);
+        if (weight < 0.1)
+            return 0;
+        return (long) (estimate * weight + DefaultBandwidthMeter.DEFAULT_INITIAL_BITRATE_ESTIMATE * (1 - weight));
+    }
+
+    public void updateBandwidthEstimate(final String networkKey, final long estimate) {
+        final SharedPreferences.Editor sharedPreferencesEditor = mSharedPreferences.edit();
+        sharedPreferencesEditor.putLong(PREF_KEY_BANDWIDTH_PREFIX + networkKey, estimate);
+        sharedPreferencesEditor.putLong(PREF_KEY_BANDWIDTH_TIME_PREFIX + networkKey, System.currentTimeMillis());
+        sharedPreferencesEditor.commit();
+    }
+
     public void setPersistent(boolean persistentMode) {
         this.persistentMode = persistentMode;
     }
@@ -0,0 +1,211 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+class SeekPreview {
+
+    private static final String CACHE_DIR = "previews";
+    private static final int CACHE_FILES = 20;
+
+    private static final int TILE_WIDTH = 192;
+    private static final int COLUMNS = 10;
+    private static final int MAX_TILES = 120;
+    private static final long MIN_INTERVAL = 10_000;
+
+    private final Context context;
+    private final Uri uri;
+    private Thread thread;
+
+    private volatile Bitmap[] tiles;
+    private volatile long interval;
+
+    SeekPreview(final Context context, final Uri uri) {
+        this.context = context.getApplicationContext();
+        this.uri = uri;
+    }
+
+    void start() {
+        thread = new Thread(() -> {
+            String key = MediaFingerprint.get(context, uri);
+            if (key == null)
+                key = Integer.toHexString(uri.toString().hashCode());
+            if (!load(key) && !Thread.currentThread().isInterrupted())
+                build(key);
+        });
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    Bitmap getTile(final long position) {
+        final Bitmap[] tiles = this.tiles;
+        if (tiles == null || interval <= 0)
+            return null;
+        final int index = (int) Math.min(tiles.length - 1, Math.max(0, (position + interval / 2) / interval));
+        // Null while tile is still being extracted
+        return tiles[index];
+    }
+
+    private static File getCacheDir(final Context context) {
+        final File dir = new File(context.getCacheDir(), CACHE_DIR);
+        if (!dir.exists())
+            dir.mkdirs();
+        return dir;
+    }
+
+    // Single tile from cached previews (a bit into the video to skip black intro), null if not cached
+    static Bitmap getThumbnail(final Context context, final String key) {
+        final File[] files = getCacheDir(context).listFiles((dir, name) -> name.startsWith(key + "_"));
+        if (files == null || files.length == 0)
+            return null;
+        BitmapRegionDecoder decoder = null;
+        try {
+            final String[] parts = files[0].getName().replace(".jpg", "").split("_");
+            final int count = Integer.parseInt(parts[parts.length - 1]);
+            if (count <= 0)
+                return null;
+            decoder = BitmapRegionDecoder.newInstance(files[0].getAbsolutePath(), false);
+            final int rows = (count + COLUMNS - 1) / COLUMNS;
+            final int tileHeight = decoder.getHeight() / rows;
+            final int index = count / 10;
+            final int left = (index % COLUMNS) * TILE_WIDTH;
+            final int top = (index / COLUMNS) * tileHeight;
+            return decoder.decodeRegion(new Rect(left, top, left + TILE_WIDTH, top + tileHeight), null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (decoder != null)
+                decoder.recycle();
+        }
+    }
+
+    // File name: <key>_<interval>_<count>.jpg
+    private boolean load(final String key) {
+        final File[] files = getCacheDir(context).listFiles((dir, name) -> name.startsWith(key + "_"));
+        if (files == null || files.length == 0)
+            return false;
+        try {
+            final String[] parts = files[0].getName().replace(".jpg", "").split("_");
+            final long interval = Long.parseLong(parts[parts.length - 2]);
+            final int count = Integer.parseInt(parts[parts.length - 1]);
+            final Bitmap sprite = BitmapFactory.decodeFile(files[0].getAbsolutePath());
+            if (sprite == null || count <= 0)
+                return false;
+            final int rows = (count + COLUMNS - 1) / COLUMNS;
+            final int tileHeight = sprite.getHeight() / rows;
+            final Bitmap[] tiles = new Bitmap[count];
+            for (int i = 0; i < count; i++) {
+                tiles[i] = Bitmap.createBitmap(sprite, (i % COLUMNS) * TILE_WIDTH, (i / COLUMNS) * tileHeight, TILE_WIDTH, tileHeight);
+            }
+            this.interval = interval;
+            this.tiles = tiles;
+            files[0].setLastModified(System.currentTimeMillis());
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            files[0].delete();
+            return false;
+        }
+    }
+
+    private void build(final String key) {
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            final long duration = Long.parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+            int width = Integer.parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            int height = Integer.parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            final String rotation = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+            if ("90".equals(rotation) || "270".equals(rotation)) {
+                final int swap = width;
+                width = height;
+                height = swap;
+            }
+            if (duration <= 0 || width <= 0 || height <= 0)
+                return;
+
+            final int tileHeight = TILE_WIDTH * height / width;
+            final long interval = Math.max(MIN_INTERVAL, duration / MAX_TILES);
+            final int count = (int) (duration / interval) + 1;
+            final Bitmap[] tiles = new Bitmap[count];
+            this.interval = interval;
+            this.tiles = tiles;
+
+            for (int i = 0; i < count; i++) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+                final long timeUs = i * interval * 1000;
+                Bitmap frame;
+                if (Build.VERSION.SDK_INT >= 27) {
+                    frame = retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, TILE_WIDTH, tileHeight);
+                } else {
+                    frame = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+                }
+                if (frame == null)
+                    continue;
+                if (frame.getWidth() != TILE_WIDTH || frame.getHeight() != tileHeight) {
+                    final Bitmap scaled = Bitmap.createScaledBitmap(frame, TILE_WIDTH, tileHeight, true);
+                    frame.recycle();
+                    frame = scaled;
+                }
+                tiles[i] = frame;
+            }
+
+            save(key, tiles, tileHeight, interval);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void save(final String key, final Bitmap[] tiles, final int tileHeight, final long interval) {
+        final int rows = (tiles.length + COLUMNS - 1) / COLUMNS;
+        final Bitmap sprite = Bitmap.createBitmap(TILE_WIDTH * COLUMNS, tileHeight * rows, Bitmap.Config.RGB_565);
+        final Canvas canvas = new Canvas(sprite);
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null)
+                canvas.drawBitmap(tiles[i], (i % COLUMNS) * TILE_WIDTH, (i / COLUMNS) * tileHeight, null);
+        }
+
+        final File dir = getCacheDir(context);
+        final File file = new File(dir, key + "_" + interval + "_" + tiles.length + ".jpg");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            sprite.compress(Bitmap.CompressFormat.JPEG, 70, fileOutputStream);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        sprite.recycle();
+
+        final File[] files = dir.listFiles();
+        if (files != null && files.length > CACHE_FILES) {
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (int i = 0; i < files.length - CACHE_FILES; i++) {
+                files[i].delete();
+            }
+        }
+    }
+}
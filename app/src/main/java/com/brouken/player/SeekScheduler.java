@@ -0,0 +1,140 @@
+package com.brouken.player;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.brouken.player.dtpv.SeekHandler;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SeekParameters;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+
+/**
+ * Collapses seek requests from gestures to the latest target and keeps at most one seek
+ * in flight. Next seek is issued once the previous one rendered its first frame.
+ */
+class SeekScheduler implements AnalyticsListener, SeekHandler {
+
+    // Media ms per wall clock ms, above that exact seeks become sync seeks
+    private static final float FAST_VELOCITY = 4f;
+    // Fallback when no frame is reported after seek (tunneling, audio only)
+    private static final long SEEK_TIMEOUT = 1000;
+    // Requests closer to each other belong to single gesture
+    private static final long GESTURE_INTERVAL = 500;
+
+    private final ExoPlayer player;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private long pendingPosition = C.TIME_UNSET;
+    private SeekParameters pendingSeekParameters;
+    private int pendingCount;
+
+    private boolean inFlight;
+    private long inFlightPosition = C.TIME_UNSET;
+    private long inFlightStart;
+
+    private long lastRequestTime;
+    private long lastRequestPosition = C.TIME_UNSET;
+    private float velocity;
+
+    private long lastLatency = C.TIME_UNSET;
+    private long coalescedCount;
+
+    private final Runnable timeoutRunnable = this::onSeekDone;
+
+    SeekScheduler(ExoPlayer player) {
+        this.player = player;
+    }
+
+    @Override
+    public void seekTo(long position, SeekParameters seekParameters) {
+        final long now = SystemClock.elapsedRealtime();
+        if (lastRequestPosition != C.TIME_UNSET && now > lastRequestTime && now - lastRequestTime < GESTURE_INTERVAL) {
+            velocity = Math.abs(position - lastRequestPosition) / (float) (now - lastRequestTime);
+        } else {
+            velocity = 0;
+        }
+        lastRequestTime = now;
+        lastRequestPosition = position;
+
+        if (pendingPosition != C.TIME_UNSET) {
+            pendingCount++;
+            coalescedCount++;
+        }
+        pendingPosition = position;
+        pendingSeekParameters = seekParameters;
+
+        if (!inFlight) {
+            issue();
+        }
+    }
+
+    // Position where playback will be after all requested seeks (for relative seeks)
+    @Override
+    public long getTargetPosition() {
+        if (pendingPosition != C.TIME_UNSET)
+            return pendingPosition;
+        if (inFlight && inFlightPosition != C.TIME_UNSET)
+            return inFlightPosition;
+        return player.getCurrentPosition();
+    }
+
+    long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    void release() {
+        handler.removeCallbacks(timeoutRunnable);
+        pendingPosition = C.TIME_UNSET;
+        inFlight = false;
+    }
+
+    private void issue() {
+        final long position = pendingPosition;
+        SeekParameters seekParameters = pendingSeekParameters;
+        pendingPosition = C.TIME_UNSET;
+
+        // Fast gestures (repeated double taps) only need to land somewhere near, sync direction asked by caller is kept
+        if (velocity >= FAST_VELOCITY && SeekParameters.EXACT.equals(seekParameters)) {
+            seekParameters = SeekParameters.CLOSEST_SYNC;
+        }
+
+        inFlight = true;
+        inFlightPosition = position;
+        inFlightStart = SystemClock.elapsedRealtime();
+        KeyframeIndex.seek(player, PlayerActivity.keyframeIndex, position, seekParameters);
+        handler.removeCallbacks(timeoutRunnable);
+        handler.postDelayed(timeoutRunnable, SEEK_TIMEOUT);
+    }
+
+    private void onSeekDone() {
+        handler.removeCallbacks(timeoutRunnable);
+        if (!inFlight)
+            return;
+        inFlight = false;
+        lastLatency = SystemClock.elapsedRealtime() - inFlightStart;
+        Utils.log("Seek latency: " + lastLatency + " ms, coalesced: " + pendingCount + ", velocity: " + velocity);
+        pendingCount = 0;
+        if (pendingPosition != C.TIME_UNSET) {
+            issue();
+        }
+    }
+
+    @Override
+    public void onRenderedFirstFrame(@NonNull EventTime eventTime, @NonNull Object output, long renderTimeMs) {
+        onSeekDone();
+    }
+
+    @Override
+    public void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+        if (state == Player.STATE_READY && player.getVideoFormat() == null) {
+            onSeekDone();
+        } else if (state == Player.STATE_ENDED || state == Player.STATE_IDLE) {
+            onSeekDone();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.brouken.player;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.webkit.MimeTypeMap;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.FileProvider;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.decoder.DecoderReuseEvaluation;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Per session open latency phases and playback counters written as JSON lines
+class SessionReport implements AnalyticsListener {
+
+    private static final String REPORT_DIR = "reports";
+    private static final String REPORT_FILE = "sessions.jsonl";
+    private static final long REPORT_MAX_SIZE = 1024 * 1024;
+
+    private final Context context;
+    private final long openStart;
+    private final long wallTime = System.currentTimeMillis();
+    private final String container;
+    private final HintExtractorsFactory extractorsFactory;
+    private final boolean network;
+    // Rebuffers and dropped frames come from the same tracking as the diagnostics overlay and log
+    private final PlaybackDiagnostics diagnostics;
+
+    private final LinkedHashMap<String, Long> phaseStarts = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> phases = new LinkedHashMap<>();
+
+    private String videoDecoder;
+    private String audioDecoder;
+    private String videoFormat;
+    private String audioFormat;
+    private final JSONArray errors = new JSONArray();
+
+    SessionReport(final Context context, final Uri uri, final boolean network, final long openStart, final HintExtractorsFactory extractorsFactory, final PlaybackDiagnostics diagnostics) {
+        this.context = context.getApplicationContext();
+        this.openStart = openStart;
+        this.network = network;
+        // Only container type, file names stay private
+        this.container = MimeTypeMap.getFileExtensionFromUrl(uri.toString());
+        this.extractorsFactory = extractorsFactory;
+        this.diagnostics = diagnostics;
+    }
+
+    void put(final String phase, final long duration) {
+        if (!phases.containsKey(phase))
+            phases.put(phase, duration);
+    }
+
+    void begin(final String phase) {
+        phaseStarts.put(phase, SystemClock.elapsedRealtime());
+    }
+
+    void end(final String phase) {
+        final Long start = phaseStarts.remove(phase);
+        if (start != null)
+            put(phase, SystemClock.elapsedRealtime() - start);
+    }
+
+    void finish() {
+        // First draw happens after session start, so startup counters are collected at the end
+        for (Map.Entry<String, Long> phase : StartupTrace.drain().entrySet()) {
+            put("startup_" + phase.getKey(), phase.getValue());
+        }
+        final JSONObject jsonObject = new JSONObject();
+        try {
+            jsonObject.put("time", wallTime);
+            jsonObject.put("app", BuildConfig.VERSION_NAME);
+            jsonObject.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+            jsonObject.put("firmware", Build.FINGERPRINT);
+            jsonObject.put("sdk", Build.VERSION.SDK_INT);
+            // Container hint used for extractor order, known also for uris without extension
+            final String containerHint = extractorsFactory.getContainer();
+            jsonObject.put("container", containerHint != null ? containerHint : container);
+            jsonObject.put("network", network);
+            final JSONObject jsonPhases = new JSONObject();
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                jsonPhases.put(phase.getKey(), phase.getValue());
+            }
+            jsonObject.put("phases", jsonPhases);
+            jsonObject.put("video_decoder", videoDecoder);
+            jsonObject.put("audio_decoder", audioDecoder);
+            jsonObject.put("video_format", videoFormat);
+            jsonObject.put("audio_format", audioFormat);
+            jsonObject.put("rebuffers", diagnostics.rebufferCount);
+            jsonObject.put("rebuffer_ms", diagnostics.rebufferDuration);
+            jsonObject.put("dropped_frames", diagnostics.droppedFrames);
+            if (diagnostics.seekLatency != C.TIME_UNSET)
+                jsonObject.put("last_seek_ms", diagnostics.seekLatency);
+            jsonObject.put("errors", errors);
+            jsonObject.put("session_ms", SystemClock.elapsedRealtime() - openStart);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        final String line = jsonObject.toString();
+        // Same writer thread as diagnostics log, reports are appended in order
+        PlaybackDiagnostics.writeExecutor.execute(() -> write(context, line));
+    }
+
+    static File getReportFile(final Context context) {
+        return new File(new File(context.getExternalFilesDir(null), REPORT_DIR), REPORT_FILE);
+    }
+
+    private static void write(final Context context, final String line) {
+        try {
+            final File file = getReportFile(context);
+            final File dir = file.getParentFile();
+            if (!dir.exists())
+                dir.mkdirs();
+            if (file.length() > REPORT_MAX_SIZE) {
+                file.renameTo(new File(dir, REPORT_FILE + ".1"));
+            }
+            final FileWriter fileWriter = new FileWriter(file, true);
+            fileWriter.write(line);
+            fileWriter.write('\n');
+            fileWriter.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    static void export(final Activity activity) {
+        final File file = getReportFile(activity);
+        if (!file.exists()) {
+            Toast.makeText(activity, R.string.pref_export_reports_empty, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final Uri uri = FileProvider.getUriForFile(activity, BuildConfig.APPLICATION_ID + ".provider", file);
+        final Intent shareIntent = new Intent(Intent.ACTION_SEND);
+        shareIntent.putExtra(Intent.EXTRA_STREAM, uri);
+        shareIntent.setType("text/plain");
+        shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        activity.startActivity(Intent.createChooser(shareIntent, null));
+    }
+
+    @Override
+    public void onRenderedFirstFrame(@NonNull EventTime eventTime, @NonNull Object output, long renderTimeMs) {
+        put("first_frame", SystemClock.elapsedRealtime() - openStart);
+    }
+
+    @Override
+    public void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+        if (state == Player.STATE_READY)
+            end("prepare");
+    }
+
+    @Override
+    public void onVideoDecoderInitialized(@NonNull EventTime eventTime, @NonNull String decoderName, long initializedTimestampMs, long initializationDurationMs) {
+        videoDecoder = decoderName;
+        put("video_decoder_init", initializationDurationMs);
+    }
+
+    @Override
+    public void onAudioDecoderInitialized(@NonNull EventTime eventTime, @NonNull String decoderName, long initializedTimestampMs, long initializationDurationMs) {
+        audioDecoder = decoderName;
+    }
+
+    @Override
+    public void onVideoInputFormatChanged(@NonNull EventTime eventTime, @NonNull Format format, DecoderReuseEvaluation decoderReuseEvaluation) {
+        videoFormat = Format.toLogString(format);
+    }
+
+    @Override
+    public void onAudioInputFormatChanged(@NonNull EventTime eventTime, @NonNull Format format, DecoderReuseEvaluation decoderReuseEvaluation) {
+        audioFormat = Format.toLogString(format);
+    }
+
+    @Override
+    public void onPlayerError(@NonNull EventTime eventTime, @NonNull PlaybackException error) {
+        errors.put(error.getErrorCodeName());
+    }
+}
@@ -1,11 +1,18 @@
 package com.brouken.player;
 
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.Context;
 import android.graphics.Color;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.LinearLayout;
+import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.ActionBar;
@@ -64,6 +71,14 @@ public class SettingsActivity extends AppCompatActivity {
     }
 
     public static class SettingsFragment extends PreferenceFragmentCompat {
+
+        private final ActivityResultLauncher<String[]> benchmarkClipLauncher =
+                registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+                    if (uri != null) {
+                        runBenchmark(uri);
+                    }
+                });
+
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
             setPreferencesFromResource(R.xml.root_preferences, rootKey);
@@ -93,6 +108,57 @@ public class SettingsActivity extends AppCompatActivity {
                 listPreferenceFileAccess.setEntries(entries.toArray(new String[0]));
                 listPreferenceFileAccess.setEntryValues(values.toArray(new String[0]));
             }
+            Preference preferenceExportReports = findPreference("exportReports");
+            if (preferenceExportReports != null) {
+                preferenceExportReports.setOnPreferenceClickListener(preference -> {
+                    SessionReport.export(requireActivity());
+                    return true;
+                });
+            }
+            Preference preferenceResetDecoderFallback = findPreference("resetDecoderFallback");
+            if (preferenceResetDecoderFallback != null) {
+                preferenceResetDecoderFallback.setOnPreferenceClickListener(preference -> {
+                    DecoderFallback.reset(requireContext().getApplicationContext());
+                    Toast.makeText(requireContext(), R.string.pref_reset_decoder_fallback_done, Toast.LENGTH_SHORT).show();
+                    return true;
+                });
+            }
+            Preference preferenceBenchmarkDecoders = findPreference("benchmarkDecoders");
+            if (preferenceBenchmarkDecoders != null) {
+                preferenceBenchmarkDecoders.setOnPreferenceClickListener(preference -> {
+                    benchmarkClipLauncher.launch(new String[] { "video/*", "audio/*" });
+                    return true;
+                });
+            }
+        }
+
+        private void runBenchmark(final Uri uri) {
+            final Preference preference = findPreference("benchmarkDecoders");
+            if (preference == null) {
+                return;
+            }
+            preference.setEnabled(false);
+            preference.setSummary(R.string.pref_benchmark_decoders_running);
+            final Context context = requireContext().getApplicationContext();
+            final int av1Threads = Integer.parseInt(getPreferenceManager().getSharedPreferences().getString("av1Threads", "0"));
+            new Thread(() -> {
+                final List<DecoderBenchmark.Result> results = DecoderBenchmark.run(context, uri, av1Threads);
+                final Activity activity = getActivity();
+                if (activity == null) {
+                    return;
+                }
+                activity.runOnUiThread(() -> {
+                    preference.setEnabled(true);
+                    preference.setSummary(R.string.pref_benchmark_decoders_summary);
+                    if (!activity.isFinishing()) {
+                        new AlertDialog.Builder(activity)
+                                .setTitle(R.string.pref_benchmark_decoders)
+                                .setMessage(DecoderBenchmark.format(results))
+                                .setPositiveButton(android.R.string.ok, null)
+                                .show();
+                    }
+                });
+            }).start();
         }
 
         @Override
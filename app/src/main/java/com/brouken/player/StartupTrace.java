@@ -0,0 +1,39 @@
+package com.brouken.player;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.util.LinkedHashMap;
+
+// Startup phases as trace sections (visible in Perfetto/systrace) and timing counters
+class StartupTrace {
+
+    private static final LinkedHashMap<String, Long> starts = new LinkedHashMap<>();
+    private static final LinkedHashMap<String, Long> durations = new LinkedHashMap<>();
+
+    // Sections have to be properly nested and ended on the same (main) thread
+    static void begin(final String phase) {
+        Trace.beginSection(phase);
+        starts.put(phase, SystemClock.elapsedRealtime());
+    }
+
+    static void end(final String phase) {
+        Trace.endSection();
+        final Long start = starts.remove(phase);
+        if (start != null) {
+            put(phase, SystemClock.elapsedRealtime() - start);
+        }
+    }
+
+    static void put(final String phase, final long duration) {
+        durations.put(phase, duration);
+        Utils.log("Startup " + phase + ": " + duration + " ms");
+    }
+
+    // Counters are reported only once, with the first session
+    static LinkedHashMap<String, Long> drain() {
+        final LinkedHashMap<String, Long> drained = new LinkedHashMap<>(durations);
+        durations.clear();
+        return drained;
+    }
+}
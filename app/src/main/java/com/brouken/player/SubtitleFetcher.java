@@ -16,6 +16,7 @@ import java.util.concurrent.CountDownLatch;
 
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.ConnectionPool;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -38,9 +39,7 @@ class SubtitleFetcher {
 
         new Thread(() -> {
 
-            OkHttpClient client = new OkHttpClient.Builder()
-                    //.callTimeout(15, TimeUnit.SECONDS)
-                    .build();
+            OkHttpClient client = HttpClient.get(activity);
 
             Callback callback = new Callback() {
                 @Override
@@ -94,10 +93,11 @@ class SubtitleFetcher {
 
             Utils.log(subtitleUri.toString());
 
-            // ProtocolException when reusing client:
+            // ProtocolException when reusing connection after probing:
             // java.net.ProtocolException: Unexpected status line: 1
-            client = new OkHttpClient.Builder()
-                    //.callTimeout(15, TimeUnit.SECONDS)
+            // (derived client still shares dispatcher, dns cache and auth with the media client)
+            client = client.newBuilder()
+                    .connectionPool(new ConnectionPool())
                     .build();
 
             Request request = new Request.Builder().url(subtitleUri.toString()).build();
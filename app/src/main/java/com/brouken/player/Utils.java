@@ -20,6 +20,8 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.media.AudioManager;
 import android.net.Uri;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.Environment;
 import android.os.LocaleList;
@@ -40,21 +42,23 @@ import android.widget.Toast;
 import androidx.annotation.RequiresApi;
 import androidx.documentfile.provider.DocumentFile;
 
-import com.arthenica.ffmpegkit.Chapter;
 import com.arthenica.ffmpegkit.FFmpegKitConfig;
 import com.arthenica.ffmpegkit.FFprobeKit;
 import com.arthenica.ffmpegkit.MediaInformation;
 import com.arthenica.ffmpegkit.MediaInformationSession;
-import com.arthenica.ffmpegkit.StreamInformation;
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.ui.StyledPlayerControlView;
 import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.NetworkTypeObserver;
 import com.obsez.android.lib.filechooser.ChooserDialog;
 
 import java.io.File;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -198,8 +202,7 @@ class Utils {
             canBoost = false;
 
         if (volume != volumeMax || (PlayerActivity.boostLevel == 0 && !raise)) {
-            if (PlayerActivity.loudnessEnhancer != null)
-                PlayerActivity.loudnessEnhancer.setEnabled(false);
+            updateLoudnessEnhancer();
             audioManager.adjustStreamVolume(AudioManager.STREAM_MUSIC, raise ? AudioManager.ADJUST_RAISE : AudioManager.ADJUST_LOWER, AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE);
             final int volumeNew = getVolume(context, false, audioManager);
             // Custom volume step on Samsung devices (Sound Assistant)
@@ -215,24 +218,18 @@ class Utils {
                 playerView.setCustomErrorMessage(volumeActive ? " " + volumeNew : "");
             }
         } else {
-            if (canBoost && raise && PlayerActivity.boostLevel < 10)
+            if (canBoost && raise && PlayerActivity.boostLevel < 10) {
                 PlayerActivity.boostLevel++;
-            else if (!raise && PlayerActivity.boostLevel > 0)
+                if (context instanceof PlayerActivity)
+                    ((PlayerActivity) context).disableAudioOffload();
+            } else if (!raise && PlayerActivity.boostLevel > 0)
                 PlayerActivity.boostLevel--;
 
-            if (PlayerActivity.loudnessEnhancer != null) {
-                try {
-                    PlayerActivity.loudnessEnhancer.setTargetGain(PlayerActivity.boostLevel * 200);
-                } catch (RuntimeException e) {
-                    e.printStackTrace();
-                }
-            }
+            updateLoudnessEnhancer();
             playerView.setCustomErrorMessage(" " + (volumeMax + PlayerActivity.boostLevel));
         }
 
         playerView.setIconVolume(volumeActive);
-        if (PlayerActivity.loudnessEnhancer != null)
-            PlayerActivity.loudnessEnhancer.setEnabled(PlayerActivity.boostLevel > 0);
         playerView.setHighlight(PlayerActivity.boostLevel > 0);
 
         if (clear) {
@@ -240,6 +237,19 @@ class Utils {
         }
     }
 
+    // Boost on top of loudness normalization (attenuation is done by player volume)
+    public static void updateLoudnessEnhancer() {
+        if (PlayerActivity.loudnessEnhancer == null)
+            return;
+        final int gain = PlayerActivity.boostLevel * 200 + Math.max(0, PlayerActivity.loudnessGain);
+        try {
+            PlayerActivity.loudnessEnhancer.setTargetGain(gain);
+            PlayerActivity.loudnessEnhancer.setEnabled(gain > 0);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
     private static int getVolume(final Context context, final boolean max, final AudioManager audioManager) {
         if (Build.VERSION.SDK_INT >= 30 && Build.VERSION.SDK_INT <= 31 && Build.MANUFACTURER.equalsIgnoreCase("samsung")) {
             try {
@@ -420,6 +430,45 @@ class Utils {
         return false;
     }
 
+    // Key of network (or LAN server) the throughput of which is remembered
+    public static String getNetworkKey(final Context context, final Uri uri) {
+        final String host = uri.getHost();
+        if (host != null && isLocalHost(host)) {
+            return "host:" + host;
+        }
+
+        final int networkType = NetworkTypeObserver.getInstance(context).getNetworkType();
+        if (networkType == C.NETWORK_TYPE_WIFI) {
+            try {
+                final WifiManager wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+                final WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+                // Hidden without location permission on newer Android versions
+                if (wifiInfo != null && wifiInfo.getSSID() != null && !WifiManager.UNKNOWN_SSID.equals(wifiInfo.getSSID())) {
+                    return "wifi:" + wifiInfo.getSSID();
+                }
+            } catch (SecurityException e) {
+                e.printStackTrace();
+            }
+        }
+        return "type:" + networkType;
+    }
+
+    private static boolean isLocalHost(final String host) {
+        if (!host.contains(".") || host.endsWith(".local") || host.endsWith(".lan") || host.endsWith(".home")) {
+            return true;
+        }
+        // Only literal addresses, no lookup on main thread
+        if (host.matches("[0-9.]+") || host.contains(":")) {
+            try {
+                final InetAddress address = InetAddress.getByName(host);
+                return address.isSiteLocalAddress() || address.isLinkLocalAddress() || address.isLoopbackAddress();
+            } catch (UnknownHostException e) {
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+
     public static boolean isSupportedNetworkUri(final Uri uri) {
         final String scheme = uri.getScheme();
         if (scheme == null)
@@ -427,7 +476,17 @@ class Utils {
         return scheme.startsWith("http") || scheme.equals("rtsp");
     }
 
+    // Package manager queries are slow, device type doesn't change while process lives
+    private static Boolean tvBox;
+
     public static boolean isTvBox(Context context) {
+        if (tvBox == null) {
+            tvBox = detectTvBox(context);
+        }
+        return tvBox;
+    }
+
+    private static boolean detectTvBox(Context context) {
         final PackageManager pm = context.getPackageManager();
 
         // TV for sure
@@ -486,7 +545,11 @@ class Utils {
             activity.frameRateSwitchThread = new Thread(() -> {
                 // Use ffprobe as ExoPlayer doesn't detect video frame rate for lots of videos
                 // and has different precision than ffprobe (so do not mix that)
-                float frameRate = Format.NO_VALUE;
+                final MediaIndex.Entry entry = MediaIndex.getCurrent(activity, uri);
+                if (entry != null && entry.probed) {
+                    handleFrameRate(activity, entry.frameRate, play);
+                    return;
+                }
                 MediaInformation mediaInformation = getMediaInformation(activity, uri);
                 if (mediaInformation == null) {
                     activity.runOnUiThread(() -> {
@@ -494,18 +557,10 @@ class Utils {
                     });
                     return;
                 }
-                List<StreamInformation> streamInformations = mediaInformation.getStreams();
-                for (StreamInformation streamInformation : streamInformations) {
-                    if (streamInformation.getType().equals("video")) {
-                        String averageFrameRate = streamInformation.getAverageFrameRate();
-                        if (averageFrameRate.contains("/")) {
-                            String[] vals = averageFrameRate.split("/");
-                            frameRate = Float.parseFloat(vals[0]) / Float.parseFloat(vals[1]);
-                            break;
-                        }
-                    }
+                if (activity.mPrefs.mediaIndex) {
+                    MediaIndex.update(activity, uri, mediaInformation);
                 }
-                handleFrameRate(activity, frameRate, play);
+                handleFrameRate(activity, MediaIndex.getFrameRate(mediaInformation), play);
             });
             activity.frameRateSwitchThread.start();
             return true;
@@ -583,6 +638,13 @@ class Utils {
                 }
             }
 
+            if (activity.sessionReport != null) {
+                activity.sessionReport.end("frame_rate_switch");
+                if (switchingModes) {
+                    activity.sessionReport.begin("display_mode_change");
+                }
+            }
+
             if (!switchingModes) {
                 playIfCan(activity, play);
             }
@@ -590,6 +652,9 @@ class Utils {
     }
 
     private static void playIfCan(final PlayerActivity activity, boolean play) {
+        if (activity.sessionReport != null) {
+            activity.sessionReport.end("frame_rate_switch");
+        }
         if (play) {
             if (PlayerActivity.player != null)
                 PlayerActivity.player.play();
@@ -716,21 +781,26 @@ class Utils {
         return Math.max(min, Math.min(scaleFactor, 2.0f));
     }
 
-    private static MediaInformation getMediaInformation(final Activity activity, final Uri uri) {
-        String path;
+    static String getFfmpegPath(final Context context, final Uri uri) {
         if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
             try {
-                path = FFmpegKitConfig.getSafParameterForRead(activity, uri);
+                return FFmpegKitConfig.getSafParameterForRead(context, uri);
             } catch (Exception e) {
                 e.printStackTrace();
                 return null;
             }
         } else if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
             // TODO: FFprobeKit doesn't accept encoded uri (like %20) (?!)
-            path = uri.getSchemeSpecificPart();
+            return uri.getSchemeSpecificPart();
         } else {
-            path = uri.toString();
+            return uri.toString();
         }
+    }
+
+    static MediaInformation getMediaInformation(final Context context, final Uri uri) {
+        final String path = getFfmpegPath(context, uri);
+        if (path == null)
+            return null;
         MediaInformationSession mediaInformationSession = FFprobeKit.getMediaInformation(path);
         return mediaInformationSession.getMediaInformation();
     }
@@ -740,20 +810,23 @@ class Utils {
             activity.chaptersThread.interrupt();
         }
         activity.chaptersThread = new Thread(() -> {
-            MediaInformation mediaInformation = getMediaInformation(activity, uri);
-            if (mediaInformation == null)
-                return;
-            final List<Chapter> chapters = mediaInformation.getChapters();
-            final long[] starts = new long[chapters.size()];
-            final boolean[] played = new boolean[chapters.size()];
-
-            for (int i = 0; i < chapters.size(); i++) {
-                Chapter chapter = chapters.get(i);
-                final long start = chapter.getStart();
-                if (start > 0) {
-                    starts[i] = start / 1_000_000;
-                    played[i] = true;
+            final long[] starts;
+            final MediaIndex.Entry entry = MediaIndex.getCurrent(activity, uri);
+            if (entry != null && entry.probed) {
+                starts = entry.chapters;
+            } else {
+                MediaInformation mediaInformation = getMediaInformation(activity, uri);
+                if (mediaInformation == null)
+                    return;
+                if (activity.mPrefs.mediaIndex) {
+                    MediaIndex.update(activity, uri, mediaInformation);
                 }
+                starts = MediaIndex.getChapterStarts(mediaInformation);
+            }
+            final boolean[] played = new boolean[starts.length];
+
+            for (int i = 0; i < starts.length; i++) {
+                played[i] = starts[i] > 0;
             }
             activity.chapterStarts = starts;
             activity.runOnUiThread(() -> controlView.setExtraAdGroupMarkers(starts, played));
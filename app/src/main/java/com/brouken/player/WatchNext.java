@@ -0,0 +1,179 @@
+package com.brouken.player;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.UriPermission;
+import android.database.Cursor;
+import android.media.tv.TvContract;
+import android.net.Uri;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.provider.DocumentsContract;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaMetadataCompat;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Continue watching" row on Android TV home screen (Watch Next) built from saved positions.
+ * Published files keep their persisted uri permission, so entries open directly without chooser.
+ */
+class WatchNext {
+
+    static final int JOB_ID = 2;
+
+    private static final String PREF_KEY_URIS = "watchNextUris";
+    private static final int MAX_ITEMS = 10;
+    // Positions saved in a row (pause, stop, next file) end up in one update
+    private static final long UPDATE_DELAY = TimeUnit.SECONDS.toMillis(30);
+    private static final long UPDATE_DEADLINE = TimeUnit.MINUTES.toMillis(5);
+
+    static boolean isSupported(final Context context) {
+        return Build.VERSION.SDK_INT >= 26 && Utils.isTvBox(context);
+    }
+
+    // Replaces pending update
+    static void schedule(final Context context) {
+        if (!isSupported(context))
+            return;
+        final JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null)
+            return;
+        final JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, WatchNextJobService.class))
+                .setMinimumLatency(UPDATE_DELAY)
+                .setOverrideDeadline(UPDATE_DEADLINE)
+                .build();
+        jobScheduler.schedule(jobInfo);
+    }
+
+    static boolean isPublished(final Context context, final Uri uri) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getStringSet(PREF_KEY_URIS, new HashSet<>()).contains(uri.toString());
+    }
+
+    @RequiresApi(26)
+    static void update(final Context context) {
+        final HashMap<String, Long> times = new HashMap<>();
+        final LinkedHashMap positions = Prefs.readPositions(context, times);
+        if (positions == null)
+            return;
+        MediaLibrary.refresh(context, MediaLibrary.CONTINUE);
+        final List<MediaBrowserCompat.MediaItem> items = MediaLibrary.getCachedChildren(MediaLibrary.CONTINUE);
+        if (items == null)
+            return;
+
+        // Rows of this app (by uri), entries removed by user are not browsable
+        final ContentResolver contentResolver = context.getContentResolver();
+        final HashMap<String, Long> rows = new HashMap<>();
+        final HashSet<String> removed = new HashSet<>();
+        try (Cursor cursor = contentResolver.query(TvContract.WatchNextPrograms.CONTENT_URI, new String[] {
+                TvContract.WatchNextPrograms._ID,
+                TvContract.WatchNextPrograms.COLUMN_INTERNAL_PROVIDER_ID,
+                TvContract.WatchNextPrograms.COLUMN_BROWSABLE
+        }, null, null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                final String id = cursor.getString(1);
+                if (id == null)
+                    continue;
+                rows.put(id, cursor.getLong(0));
+                if (cursor.getInt(2) == 0)
+                    removed.add(id);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+
+        final Set<String> permissions = getPersistedPermissions(context);
+        final HashSet<String> published = new HashSet<>();
+        for (MediaBrowserCompat.MediaItem item : items) {
+            if (published.size() >= MAX_ITEMS)
+                break;
+            final String id = item.getMediaId();
+            final Uri uri = Uri.parse(id);
+            // Keep rows removed by user, so they don't come back while still unfinished
+            if (removed.contains(id)) {
+                rows.remove(id);
+                continue;
+            }
+            if (!canOpen(uri, permissions))
+                continue;
+            final Object position = positions.get(id);
+            final MediaMetadataCompat metadata = MediaLibrary.getMetadata(context, uri);
+            final ContentValues values = new ContentValues();
+            values.put(TvContract.WatchNextPrograms.COLUMN_TYPE, TvContract.WatchNextPrograms.TYPE_MOVIE);
+            values.put(TvContract.WatchNextPrograms.COLUMN_WATCH_NEXT_TYPE, TvContract.WatchNextPrograms.WATCH_NEXT_TYPE_CONTINUE);
+            values.put(TvContract.WatchNextPrograms.COLUMN_INTERNAL_PROVIDER_ID, id);
+            values.put(TvContract.WatchNextPrograms.COLUMN_TITLE, metadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE));
+            values.put(TvContract.WatchNextPrograms.COLUMN_LAST_PLAYBACK_POSITION_MILLIS, position instanceof Long ? ((Long) position).intValue() : 0);
+            final long duration = metadata.getLong(MediaMetadataCompat.METADATA_KEY_DURATION);
+            if (duration > 0)
+                values.put(TvContract.WatchNextPrograms.COLUMN_DURATION_MILLIS, (int) duration);
+            // Files played before times were stored keep their published time
+            final Long time = times.get(id);
+            if (time != null)
+                values.put(TvContract.WatchNextPrograms.COLUMN_LAST_ENGAGEMENT_TIME_UTC_MILLIS, time);
+            values.put(TvContract.WatchNextPrograms.COLUMN_POSTER_ART_URI, "android.resource://" + context.getPackageName() + "/mipmap/banner");
+            values.put(TvContract.WatchNextPrograms.COLUMN_POSTER_ART_ASPECT_RATIO, TvContract.WatchNextPrograms.ASPECT_RATIO_16_9);
+            values.put(TvContract.WatchNextPrograms.COLUMN_INTENT_URI, new Intent(Intent.ACTION_VIEW, uri, context, PlayerActivity.class)
+                    .toUri(Intent.URI_INTENT_SCHEME));
+            try {
+                final Long row = rows.remove(id);
+                if (row != null) {
+                    contentResolver.update(TvContract.buildWatchNextProgramUri(row), values, null, null);
+                } else {
+                    contentResolver.insert(TvContract.WatchNextPrograms.CONTENT_URI, values);
+                }
+                published.add(id);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Watched to the end or not played for a long time
+        for (Long row : rows.values()) {
+            try {
+                contentResolver.delete(TvContract.buildWatchNextProgramUri(row), null, null);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        PreferenceManager.getDefaultSharedPreferences(context).edit().putStringSet(PREF_KEY_URIS, published).apply();
+    }
+
+    private static Set<String> getPersistedPermissions(final Context context) {
+        final Set<String> permissions = new HashSet<>();
+        for (UriPermission uriPermission : context.getContentResolver().getPersistedUriPermissions()) {
+            if (uriPermission.isReadPermission())
+                permissions.add(uriPermission.getUri().toString());
+        }
+        return permissions;
+    }
+
+    // Opening from home screen must not need chooser again
+    private static boolean canOpen(final Uri uri, final Set<String> permissions) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()))
+            return ContentResolver.SCHEME_FILE.equals(uri.getScheme());
+        if ("media".equals(uri.getAuthority()) || permissions.contains(uri.toString()))
+            return true;
+        // Document from scope (tree)
+        try {
+            final Uri treeUri = DocumentsContract.buildTreeDocumentUri(uri.getAuthority(), DocumentsContract.getTreeDocumentId(uri));
+            return permissions.contains(treeUri.toString());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.brouken.player;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+public class WatchNextJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        if (Build.VERSION.SDK_INT < 26)
+            return false;
+        new Thread(() -> {
+            try {
+                WatchNext.update(this);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            jobFinished(params, false);
+        }).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
@@ -0,0 +1,15 @@
+package com.brouken.player.dtpv;
+
+import com.google.android.exoplayer2.SeekParameters;
+
+public interface SeekHandler {
+    /**
+     * Seeks (possibly later, collapsed with following requests)
+     */
+    void seekTo(long position, SeekParameters seekParameters);
+
+    /**
+     * Position where playback will be after all requested seeks
+     */
+    long getTargetPosition();
+}
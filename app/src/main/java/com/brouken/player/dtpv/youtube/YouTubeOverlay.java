@@ -23,6 +23,7 @@ import com.brouken.player.PlayerActivity;
 import com.brouken.player.R;
 import com.brouken.player.dtpv.DoubleTapPlayerView;
 import com.brouken.player.dtpv.PlayerDoubleTapListener;
+import com.brouken.player.dtpv.SeekHandler;
 import com.brouken.player.dtpv.SeekListener;
 import com.brouken.player.dtpv.youtube.views.CircleClipTapView;
 import com.brouken.player.dtpv.youtube.views.SecondsView;
@@ -81,6 +82,7 @@ public final class YouTubeOverlay extends ConstraintLayout implements PlayerDoub
     // Player behaviors
     private DoubleTapPlayerView playerView;
     private ExoPlayer player;
+    private SeekHandler seekHandler;
 
     /**
      * Sets all optional XML attributes and defaults
@@ -177,6 +179,16 @@ public final class YouTubeOverlay extends ConstraintLayout implements PlayerDoub
         return this;
     }
 
+    /**
+     * Optional, seeks go through the handler instead of the player when set.
+     *
+     * @param seekHandler SeekHandler of the current player
+     */
+    public YouTubeOverlay seekHandler(SeekHandler seekHandler) {
+        this.seekHandler = seekHandler;
+        return this;
+    }
+
         /*
         Properties
      */
@@ -477,11 +489,9 @@ public final class YouTubeOverlay extends ConstraintLayout implements PlayerDoub
         if (player == null || playerView == null)
             return;
 
-        player.setSeekParameters(SeekParameters.EXACT);
-
         // Start of the video reached
         if (newPosition <= 0) {
-            player.seekTo(0);
+            seekTo(0);
 
             if (seekListener != null)
                 seekListener.onVideoStartReached();
@@ -491,7 +501,7 @@ public final class YouTubeOverlay extends ConstraintLayout implements PlayerDoub
         // End of the video reached
         long total = player.getDuration();
         if (newPosition >= total) {
-            player.seekTo(total);
+            seekTo(total);
 
             if (seekListener != null)
                 seekListener.onVideoEndReached();
@@ -500,19 +510,37 @@ public final class YouTubeOverlay extends ConstraintLayout implements PlayerDoub
 
         // Otherwise
         playerView.keepInDoubleTapMode();
-        player.seekTo(newPosition);
+        seekTo(newPosition);
+    }
+
+    private void seekTo(long position) {
+        if (seekHandler != null) {
+            seekHandler.seekTo(position, SeekParameters.EXACT);
+        } else {
+            player.setSeekParameters(SeekParameters.EXACT);
+            player.seekTo(position);
+        }
+    }
+
+    /**
+     * Position to seek from, includes seeks not yet issued by the seek scheduler
+     */
+    private long getSeekBasePosition() {
+        if (seekHandler != null)
+            return seekHandler.getTargetPosition();
+        return player.getCurrentPosition();
     }
 
     private void forwarding() {
         SecondsView secondsView = findViewById(R.id.seconds_view);
         secondsView.setSeconds(secondsView.getSeconds() + seekSeconds);
-        seekToPosition(player != null ? player.getCurrentPosition() + (long)(this.seekSeconds * 1000) : null);
+        seekToPosition(player != null ? getSeekBasePosition() + (long)(this.seekSeconds * 1000) : null);
     }
 
     private void rewinding() {
         SecondsView secondsView = findViewById(R.id.seconds_view);
         secondsView.setSeconds(secondsView.getSeconds() + seekSeconds);
-        seekToPosition(player != null ? player.getCurrentPosition() - (long)(this.seekSeconds * 1000) : null);
+        seekToPosition(player != null ? getSeekBasePosition() - (long)(this.seekSeconds * 1000) : null);
     }
 
     private void changeConstraints(boolean forward) {
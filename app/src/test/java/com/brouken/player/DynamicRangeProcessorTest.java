@@ -0,0 +1,91 @@
+package com.brouken.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.Random;
+
+public class DynamicRangeProcessorTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    // Compression must cost a small fraction of playback time
+    private static final double MIN_SPEED = 20;
+
+    @Test
+    public void peakIsCompressedWhenLeavingDelayLine() throws Exception {
+        final DynamicRangeProcessor processor = createProcessor(1);
+        final int quietFrames = 1000;
+        final int loudFrames = 1000;
+        final ByteBuffer inputBuffer = allocate(quietFrames + loudFrames);
+        for (int i = 0; i < quietFrames; i++) {
+            inputBuffer.putFloat(0f);
+        }
+        for (int i = 0; i < loudFrames; i++) {
+            inputBuffer.putFloat(1f);
+        }
+        inputBuffer.flip();
+        processor.queueInput(inputBuffer);
+        final ByteBuffer outputBuffer = processor.getOutput();
+
+        // 5 ms look-ahead
+        final int delayFrames = SAMPLE_RATE * 5 / 1000;
+        final float first = outputBuffer.getFloat((quietFrames + delayFrames) * 4);
+        final float last = outputBuffer.getFloat((quietFrames + loudFrames - 1) * 4);
+        // First sample of the step is already attenuated close to the steady state
+        assertEquals(last, first, last * 0.1f);
+    }
+
+    // Processing speed (times real time) for 7.1 float audio at 48 kHz on one thread
+    @Test
+    public void benchmark() throws Exception {
+        final int channels = 8;
+        final int seconds = 60;
+        final DynamicRangeProcessor processor = createProcessor(channels);
+
+        // Typical decoder output buffer of 1024 frames
+        final int frames = 1024;
+        final ByteBuffer inputBuffer = allocate(frames * channels);
+        final Random random = new Random(0);
+        while (inputBuffer.hasRemaining()) {
+            inputBuffer.putFloat(random.nextFloat() * 2f - 1f);
+        }
+
+        final int buffers = seconds * SAMPLE_RATE / frames;
+        // Warm up JIT
+        process(processor, inputBuffer, buffers / 10);
+        final long start = System.nanoTime();
+        process(processor, inputBuffer, buffers);
+        final long elapsed = System.nanoTime() - start;
+        processor.reset();
+
+        final double speed = (double) buffers * frames / SAMPLE_RATE * 1e9 / elapsed;
+        assertTrue(String.format(Locale.US, "%.1fx real time", speed), speed >= MIN_SPEED);
+    }
+
+    private static DynamicRangeProcessor createProcessor(final int channels) throws AudioProcessor.UnhandledAudioFormatException {
+        final DynamicRangeProcessor processor = new DynamicRangeProcessor();
+        processor.configure(new AudioProcessor.AudioFormat(SAMPLE_RATE, channels, C.ENCODING_PCM_FLOAT));
+        processor.flush();
+        return processor;
+    }
+
+    private static ByteBuffer allocate(final int samples) {
+        return ByteBuffer.allocateDirect(samples * 4).order(ByteOrder.nativeOrder());
+    }
+
+    private static void process(final AudioProcessor processor, final ByteBuffer inputBuffer, final int buffers) {
+        for (int i = 0; i < buffers; i++) {
+            inputBuffer.rewind();
+            processor.queueInput(inputBuffer);
+            processor.getOutput();
+        }
+    }
+}